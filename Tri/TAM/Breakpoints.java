@@ -0,0 +1,193 @@
+/*
+ * @(#)Breakpoints.java
+ *
+ * Sets breakpoints in the code store of a TamVM by patching a trap into
+ * it, so that a run pays for a breakpoint only where one is set.
+ */
+
+package TAM;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The breakpoints of a machine. Setting one replaces the packed word at
+ * its address with a TRAPh word, and keeps the word it replaced; clearing
+ * it puts the word back. No execution loop looks for breakpoints: a TRAPh
+ * word has no handler of its own in interpretVerified or interpretCached,
+ * so it runs in step, which stops the run there with the status stopped.
+ * When the run continues from a breakpoint it has stopped at, step runs
+ * the word that the trap replaced, once, and goes on.
+ *
+ * A superinstruction (see TamVM.fuse) that covers the address of a
+ * breakpoint would run past it, so setting the breakpoint also puts the
+ * plain word back at the head of the superinstruction, until it is
+ * cleared. Translated code runs the object program rather than the code
+ * store, so a routine that holds a breakpoint is kept from translation.
+ *
+ * A breakpoint on a line of a source file is set at the first address of
+ * each stretch of code that the lineMap gives to that line of that file
+ * (see TamVM.fileAt), and at the entry of each routine on that line,
+ * whose code may follow a jump round it that the lineMap gives to the
+ * same line.
+ */
+
+public class Breakpoints {
+
+  final TamVM vm;
+
+  // The words that traps have replaced, by address.
+  final TreeMap<Integer, Long> saved = new TreeMap<Integer, Long>();
+
+  // The superinstructions that breakpoints have split, by address.
+  final TreeMap<Integer, Long> unfused = new TreeMap<Integer, Long>();
+
+  // The address of the breakpoint the run has stopped at, which it runs
+  // past when it continues, or -1.
+  int passing = -1;
+
+  Breakpoints (TamVM vm) {
+    this.vm = vm;
+  }
+
+  /**
+   * Returns the addresses at which a breakpoint on the given line of the
+   * given source file is set.
+   */
+  List<Integer> addresses (String file, int line) {
+    boolean[] entry = new boolean[vm.CT + 1];
+    for (String[] routine : vm.functionMap()) {
+      int start = Integer.parseInt(routine[1]);
+      if ((start >= TamVM.CB) && (start < vm.CT))
+        entry[start] = true;
+    }
+    List<Integer> addresses = new ArrayList<Integer>();
+    for (int addr = TamVM.CB; addr < vm.CT; addr++)
+      if ((vm.lineMap().get(addr) == line) && vm.fileAt(addr).equals(file)
+          && ((addr == TamVM.CB) || entry[addr] || (vm.lineMap().get(addr - 1) != line)
+              || !vm.fileAt(addr - 1).equals(file)))
+        addresses.add(addr);
+    return addresses;
+  }
+
+  /**
+   * Sets breakpoints on the given line of the given source file,
+   * returning how many.
+   */
+  int setLine (String file, int line) {
+    int count = 0;
+    for (int addr : addresses(file, line))
+      if (set(addr))
+        count++;
+    return count;
+  }
+
+  /**
+   * Returns the word at addr as the program runs it: the word that a
+   * breakpoint replaced, or the word in the code store.
+   */
+  long word (int addr) {
+    Long word = saved.get(addr);
+    return (word != null) ? word : vm.code[addr];
+  }
+
+  void replace (int addr, long word) {
+    if (saved.containsKey(addr))
+      saved.put(addr, word);
+    else
+      vm.code[addr] = word;
+  }
+
+  /**
+   * Returns the number of words that a superinstruction covers, or 1 for
+   * any other word.
+   */
+  int span (long word) {
+    switch ((int) (word >>> 56)) {
+      case TamVM.CMPJUMP:
+        return 4;
+      case TamVM.ADDL:
+      case TamVM.SUBL:
+      case TamVM.MULTL:
+      case TamVM.LTL:
+      case TamVM.LEL:
+      case TamVM.GEL:
+      case TamVM.GTL:
+      case TamVM.CHECKL:
+        return 2;
+      case TamVM.LITERALS:
+        return vm.operands[(int) word];
+      default:
+        return 1;
+    }
+  }
+
+  /**
+   * Sets a breakpoint at the given code address. Tests whether there was
+   * not one there already.
+   */
+  boolean set (int addr) {
+    if ((addr < TamVM.CB) || (addr >= vm.CT) || saved.containsKey(addr))
+      return false;
+    // the words after a superinstruction's head are plain (see fuseAt)
+    for (int head = TamVM.CB; head < addr; head++)
+      if (head + span(word(head)) > addr) {
+        unfused.put(head, word(head));
+        replace(head, vm.predecode(vm.instructions[head], head));
+      }
+    saved.put(addr, vm.code[addr]);
+    vm.code[addr] = Instruction.pack(TamVM.TRAPh, 0, 0, addr);
+    keepInterpreted(addr);
+    return true;
+  }
+
+  /**
+   * Clears the breakpoint at the given code address, if there is one.
+   */
+  void clear (int addr) {
+    Long word = saved.remove(addr);
+    if (word == null)
+      return;
+    vm.code[addr] = word;
+    if (passing == addr)
+      passing = -1;
+    // fuse again the superinstructions that no breakpoint splits now
+    for (Map.Entry<Integer, Long> head : new ArrayList<Map.Entry<Integer, Long>>(unfused.entrySet())) {
+      int start = head.getKey();
+      if (saved.subMap(start + 1, start + span(head.getValue())).isEmpty()) {
+        unfused.remove(start);
+        replace(start, head.getValue());
+      }
+    }
+  }
+
+  /**
+   * Returns the word that the breakpoint at addr replaced.
+   */
+  long original (int addr) {
+    return saved.get(addr);
+  }
+
+  /**
+   * Keeps the routine holding addr from being translated, and drops its
+   * translation if it has one.
+   */
+  void keepInterpreted (int addr) {
+    if (vm.untranslatable == null)
+      return;
+    int entry = vm.routineOf[addr];
+    vm.untranslatable[entry] = true;
+    vm.compiled[entry] = null;
+  }
+
+  /**
+   * Keeps every routine that holds a breakpoint from being translated;
+   * called when the machine prepares its tiers.
+   */
+  void keepInterpreted () {
+    for (int addr : saved.keySet())
+      keepInterpreted(addr);
+  }
+}
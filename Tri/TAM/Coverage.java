@@ -0,0 +1,233 @@
+/*
+ * @(#)Coverage.java
+ *
+ * Records which source lines of a Triangle program a TamVM has executed,
+ * and accumulates them over many runs.
+ */
+
+package TAM;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Source coverage. While a machine is covering (the -coverage option) it
+ * runs in interpretCovering, which sets the bit of a basic block's first
+ * address in a BitSet the first time control enters the block, and does
+ * nothing else; a block counts as executed once it is entered. Blocks are
+ * found as the Verifier and the Translator find them: they start at CB,
+ * at each routine entry and address that is jumped to, called or loaded
+ * as a code address, and after each instruction that does not simply go
+ * on to the next.
+ *
+ * The executed addresses are mapped to source files and lines through
+ * TamVM.fileAt and the lineMap, and to the innermost routine of the
+ * functionMap that holds them. A
+ * Coverage holds, for each source file, routine and line, whether the line
+ * was executed, and is kept in a file of tab-separated records, one for
+ * each file, routine and line, so that the coverage of many runs, of one
+ * program or of several, can be merged by reading the file, adding a run,
+ * and writing it back. For example, to merge the files of other runs:
+ * <pre>
+ *   java TAM.Coverage all.cov run1.cov run2.cov
+ * </pre>
+ */
+
+public class Coverage {
+
+  // Whether each line was executed, by file, routine and line.
+  final TreeMap<String, TreeMap<String, TreeMap<Integer, Boolean>>> files =
+    new TreeMap<String, TreeMap<String, TreeMap<Integer, Boolean>>>();
+
+  /**
+   * Returns the first address of each basic block of the program the
+   * given machine has loaded.
+   */
+  static boolean[] blockEntries (TamVM vm) {
+    boolean[] entry = new boolean[vm.CT + 1];
+    entry[TamVM.CB] = true;
+    for (String[] routine : vm.functionMap()) {
+      int start = Integer.parseInt(routine[1]);
+      if ((start >= TamVM.CB) && (start < vm.CT))
+        entry[start] = true;
+    }
+    for (int addr = TamVM.CB; addr < vm.CT; addr++) {
+      Instruction instr = vm.instructions[addr];
+      switch (instr.op) {
+        case Machine.JUMPop:
+        case Machine.JUMPIFop:
+        case Machine.CALLop:
+        case Machine.LOADAop:
+          if ((instr.r == Machine.CBr) && (instr.d >= TamVM.CB) && (instr.d < vm.CT))
+            entry[instr.d] = true;
+          if (instr.op != Machine.LOADAop)
+            entry[addr + 1] = true;
+          break;
+        case Machine.CALLIop:
+        case Machine.JUMPIop:
+        case Machine.RETURNop:
+        case Machine.HALTop:
+          entry[addr + 1] = true;
+          break;
+      }
+    }
+    return entry;
+  }
+
+  void record (String file, String routine, int line, boolean executed) {
+    TreeMap<String, TreeMap<Integer, Boolean>> routines = files.get(file);
+    if (routines == null) {
+      routines = new TreeMap<String, TreeMap<Integer, Boolean>>();
+      files.put(file, routines);
+    }
+    TreeMap<Integer, Boolean> lines = routines.get(routine);
+    if (lines == null) {
+      lines = new TreeMap<Integer, Boolean>();
+      routines.put(routine, lines);
+    }
+    Boolean before = lines.get(line);
+    lines.put(line, executed || ((before != null) && before));
+  }
+
+  /**
+   * Adds a run of the given machine, in which the blocks whose first
+   * addresses are set in covered were executed.
+   */
+  void add (TamVM vm, BitSet covered) {
+    boolean[] entry = blockEntries(vm);
+    int[] owner = vm.routines();
+    String[] names = new String[vm.CT];
+    names[TamVM.CB] = "main";
+    for (String[] routine : vm.functionMap()) {
+      int start = Integer.parseInt(routine[1]);
+      if ((start > TamVM.CB) && (start < vm.CT))
+        names[start] = routine[0];
+    }
+    boolean executed = false;
+    for (int addr = TamVM.CB; addr < vm.CT; addr++) {
+      if (entry[addr])
+        executed = covered.get(addr);
+      record(vm.fileAt(addr), names[owner[addr]], vm.lineMap().get(addr), executed);
+    }
+  }
+
+  /**
+   * Reads and merges the records of the named file.
+   */
+  void read (String coverageName) throws IOException {
+    BufferedReader file = new BufferedReader(new FileReader(coverageName));
+    String record;
+    String currentFile = null, currentRoutine = null;
+    while ((record = file.readLine()) != null) {
+      String[] fields = record.split("\t");
+      if (fields[0].equals("file") && fields.length == 2)
+        currentFile = fields[1];
+      else if (fields[0].equals("routine") && fields.length == 2)
+        currentRoutine = fields[1];
+      else if (fields[0].equals("line") && fields.length == 3 && currentRoutine != null)
+        record(currentFile, currentRoutine, Integer.parseInt(fields[1]), fields[2].equals("1"));
+      else if (!record.isEmpty())
+        throw new IOException("Not a coverage file: " + coverageName);
+    }
+    file.close();
+  }
+
+  /**
+   * Writes the records to the named file.
+   */
+  void write (String coverageName) throws IOException {
+    PrintWriter file = new PrintWriter(new FileWriter(coverageName));
+    for (Map.Entry<String, TreeMap<String, TreeMap<Integer, Boolean>>> f : files.entrySet()) {
+      file.println("file\t" + f.getKey());
+      for (Map.Entry<String, TreeMap<Integer, Boolean>> routine : f.getValue().entrySet()) {
+        file.println("routine\t" + routine.getKey());
+        for (Map.Entry<Integer, Boolean> line : routine.getValue().entrySet())
+          file.println("line\t" + line.getKey() + "\t" + (line.getValue() ? 1 : 0));
+      }
+    }
+    file.close();
+    if (file.checkError())
+      throw new IOException("write failed");
+  }
+
+  static String percent (int part, int whole) {
+    return part + "/" + whole + " lines" + ((whole == 0) ? ""
+        : String.format(" (%.1f%%)", 100.0 * part / whole));
+  }
+
+  /**
+   * Writes the lines executed in each file, and in each routine.
+   */
+  void report (PrintStream out) {
+    out.println("Coverage:");
+    for (Map.Entry<String, TreeMap<String, TreeMap<Integer, Boolean>>> f : files.entrySet()) {
+      // a line executed in any routine was executed
+      TreeMap<Integer, Boolean> lines = new TreeMap<Integer, Boolean>();
+      for (TreeMap<Integer, Boolean> routine : f.getValue().values())
+        for (Map.Entry<Integer, Boolean> line : routine.entrySet()) {
+          Boolean before = lines.get(line.getKey());
+          lines.put(line.getKey(), line.getValue() || ((before != null) && before));
+        }
+      out.println("  " + f.getKey() + ": " + percent(count(lines), lines.size()));
+      for (Map.Entry<String, TreeMap<Integer, Boolean>> routine : f.getValue().entrySet())
+        out.println("    " + routine.getKey() + ": "
+            + percent(count(routine.getValue()), routine.getValue().size()));
+    }
+  }
+
+  static int count (Map<Integer, Boolean> lines) {
+    int executed = 0;
+    for (boolean line : lines.values())
+      if (line)
+        executed++;
+    return executed;
+  }
+
+  /**
+   * Adds a run of the given machine to the named file, creating it if it
+   * does not exist, and writes the coverage of all the runs it holds.
+   */
+  static void merge (TamVM vm, BitSet covered, String coverageName, PrintStream out) {
+    Coverage coverage = new Coverage();
+    try {
+      if (new File(coverageName).exists())
+        coverage.read(coverageName);
+      coverage.add(vm, covered);
+      coverage.write(coverageName);
+    } catch (IOException s) {
+      System.err.println ("Error merging coverage: " + s);
+      return;
+    }
+    coverage.report(out);
+  }
+
+  /**
+   * Merges the coverage files named second and after into the file named
+   * first, and writes the coverage they hold.
+   */
+  public static void main (String[] args) {
+    if (args.length == 0) {
+      System.err.println("Usage: java TAM.Coverage merged.cov [run.cov ...]");
+      return;
+    }
+    Coverage coverage = new Coverage();
+    try {
+      for (String name : args)
+        if (new File(name).exists())
+          coverage.read(name);
+      coverage.write(args[0]);
+    } catch (IOException s) {
+      System.err.println ("Error merging coverage: " + s);
+      return;
+    }
+    coverage.report(System.out);
+  }
+}
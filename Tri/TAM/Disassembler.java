@@ -100,6 +100,10 @@ public class Disassembler {
       case Machine.CPr:
 	System.out.print ("CP");
 	break;
+      default:
+	if (r >= Machine.L7r)
+	  System.out.print ("L" + (r - Machine.L7r + 7));
+	break;
     }
     System.out.print (rightbracket);
   }
@@ -365,9 +369,11 @@ public class Disassembler {
       objectFile = new FileInputStream (objectName);
       objectStream = new DataInputStream (objectFile);
       ObjectFileHeader header = new ObjectFileHeader(objectStream);
+      if (header.instructionCount > Machine.code.length)
+        Machine.code = new Instruction[header.instructionCount];
       addr = Machine.CB;
       for(int i = 0; i < header.instructionCount; i ++) {
-        Machine.code[addr] = Instruction.read(objectStream);
+        Machine.code[addr] = header.readInstruction(objectStream);
         if (Machine.code[addr] == null)
           break;
         else
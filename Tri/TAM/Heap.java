@@ -0,0 +1,321 @@
+/*
+ * @(#)Heap.java
+ *
+ * The allocator behind the new and dispose primitives of a TamVM.
+ */
+
+package TAM;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Allocates heap blocks for the new primitive and takes them back from
+ * dispose. The heap grows down from HB to HT, as it always has; the blocks
+ * that have been disposed of below HB and above HT are kept on free lists,
+ * one per block size up to smallSizes and one for all larger blocks, and
+ * new takes the smallest block that fits (the lowest addressed, if there
+ * are several) before it moves HT. A disposed block is merged with any free
+ * neighbour, and a free block that reaches HT is given back to the space
+ * between the stack and the heap.
+ *
+ * The bookkeeping is held here rather than in the data store, so the
+ * program's words are exactly as it left them and the dump is unchanged.
+ *
+ * If the machine is collecting (the -gc option), a new that finds no room
+ * first runs a mark-compact collection (see collect). TAM words carry no
+ * types, so the collector is mostly-copying: a block is moved only if the
+ * words that refer to it are known to be pointers, which is the case for
+ * the frame words that a routine's pointer map marks. Every other word
+ * that looks like an address in a block, on the stack or in another
+ * block, keeps the block alive and pins it where it is.
+ *
+ * The Triangle compiler writes no pointer maps (see
+ * Triangle.CodeGenerator.Encoder.saveObjectProgram), so every frame of a
+ * compiled program is scanned whole and every block it reaches is pinned:
+ * compiled code gets mark-sweep only. Blocks are moved only in object
+ * programs that carry their own maps, such as hand-assembled ones.
+ */
+
+public class Heap {
+
+  // Free blocks of fewer words than this have a list for each size; the
+  // larger ones share the last list.
+  static final int smallSizes = 32;
+
+  final TamVM vm;
+
+  // The size of each free block, by address.
+  final TreeMap<Integer, Integer> free = new TreeMap<Integer, Integer>();
+
+  // The addresses of the free blocks in each list, lowest first.
+  final List<TreeSet<Integer>> lists = new ArrayList<TreeSet<Integer>>();
+
+  // The size of each allocated block, by address.
+  TreeMap<Integer, Integer> blocks = new TreeMap<Integer, Integer>();
+
+  // Words in free blocks, and words allocated and not disposed of.
+  int freeWords, liveWords;
+
+  // The most words the heap has held between HT and HB.
+  int highWater;
+
+  int allocations, disposals;
+
+  // Collections so far, and the words they reclaimed and blocks they moved.
+  int collections, collectedWords, movedBlocks;
+
+  Heap (TamVM vm) {
+    this.vm = vm;
+    for (int i = 0; i <= smallSizes; i++)
+      lists.add(new TreeSet<Integer>());
+  }
+
+  static int listFor (int size) {
+    return Math.min(size, smallSizes);
+  }
+
+  void insert (int address, int size) {
+    free.put(address, size);
+    lists.get(listFor(size)).add(address);
+    freeWords = freeWords + size;
+  }
+
+  void remove (int address, int size) {
+    free.remove(address);
+    lists.get(listFor(size)).remove(address);
+    freeWords = freeWords - size;
+  }
+
+  /**
+   * Returns the address of a free block of at least size words, or -1.
+   */
+  int find (int size) {
+    for (int list = listFor(size); list < smallSizes; list++)
+      if (!lists.get(list).isEmpty())
+        return lists.get(list).first();
+    for (int address : lists.get(smallSizes))
+      if (free.get(address) >= size)
+        return address;
+    return -1;
+  }
+
+  /**
+   * Returns the address of a new block of size words. If there is no room
+   * for it, sets the status of the machine and leaves the heap as it was.
+   */
+  int allocate (int size) {
+    if (size <= 0)
+      return vm.HT;
+    int address = find(size);
+    if ((address < 0) && vm.collecting && (vm.HT - vm.ST < size)) {
+      collect();
+      address = find(size);
+    }
+    if (address >= 0) {
+      int blockSize = free.get(address);
+      remove(address, blockSize);
+      if (blockSize > size)
+        insert(address + size, blockSize - size);
+    } else {
+      if (!vm.checkSpace(size))
+        return vm.HT;
+      vm.HT = vm.HT - size;
+      address = vm.HT;
+      highWater = Math.max(highWater, vm.HB - vm.HT);
+    }
+    blocks.put(address, size);
+    liveWords = liveWords + size;
+    allocations++;
+    return address;
+  }
+
+  /**
+   * Takes back the block at address, which is size words long. Addresses
+   * that are not those of allocated blocks are ignored, and the block is
+   * freed whole whatever size is given.
+   */
+  void dispose (int address, int size) {
+    Integer allocated = blocks.remove(address);
+    if (allocated == null)
+      return;
+    size = allocated;
+    liveWords = liveWords - size;
+    disposals++;
+
+    Map.Entry<Integer, Integer> below = free.lowerEntry(address);
+    Integer above = free.get(address + size);
+    if (above != null) {
+      remove(address + size, above);
+      size = size + above;
+    }
+    if ((below != null) && (below.getKey() + below.getValue() == address)) {
+      remove(below.getKey(), below.getValue());
+      address = below.getKey();
+      size = size + below.getValue();
+    }
+    if (address == vm.HT)
+      vm.HT = address + size;
+    else
+      insert(address, size);
+  }
+
+  // COLLECTION
+
+  // The blocks reached so far in a collection, those that must stay where
+  // they are, those whose words are still to be scanned, and the stack
+  // words that are known to point into a block.
+  Set<Integer> marked, pinned;
+  ArrayDeque<Integer> pending;
+  Set<Integer> slots;
+
+  /**
+   * Returns the address of the allocated block holding addr, or -1.
+   */
+  int blockAt (int addr) {
+    if ((addr < vm.HT) || (addr >= vm.HB))
+      return -1;
+    Map.Entry<Integer, Integer> block = blocks.floorEntry(addr);
+    if ((block == null) || (addr >= block.getKey() + block.getValue()))
+      return -1;
+    return block.getKey();
+  }
+
+  /**
+   * Marks the block that value points into, if any. slot is the address
+   * of the word holding value if it is known to be a pointer, or -1.
+   */
+  void reach (int value, int slot) {
+    int block = blockAt(value);
+    if (block < 0)
+      return;
+    if (slot < 0)
+      pinned.add(block);
+    else
+      slots.add(slot);
+    if (marked.add(block))
+      pending.push(block);
+  }
+
+  /**
+   * Marks the blocks that the stack refers to, walking the frames from
+   * the top along their dynamic links. A frame whose routine has a pointer
+   * map is scanned only where the map says, so an empty map means the
+   * frame holds no heap addresses at all; any other frame is scanned
+   * whole, except its link data. The topmost frame of a routine is always
+   * scanned whole, since translated code does not keep CP up to date.
+   */
+  void scanStack () {
+    int[] routineOf = vm.routines();
+    int[] data = vm.data;
+    int base = vm.LB, top = vm.ST;
+    BitSet map = (base == TamVM.SB) ? vm.pointerMaps().get(TamVM.CB) : null;
+    for (;;) {
+      int from = (base == TamVM.SB) ? base : base + Machine.linkDataSize;
+      for (int addr = from; addr < top; addr++)
+        if (map == null)
+          reach(data[addr], -1);
+        else if (map.get(addr - base))
+          reach(data[addr], addr);
+      if (base == TamVM.SB)
+        return;
+      int returnAddress = data[base + 2];
+      int link = data[base + 1];
+      if ((link < TamVM.SB) || (link >= base))
+        return; // not a frame that the machine pushed
+      top = base;
+      base = link;
+      map = ((returnAddress > TamVM.CB) && (returnAddress <= vm.CT))
+        ? vm.pointerMaps().get(routineOf[returnAddress - 1]) : null;
+    }
+  }
+
+  /**
+   * Frees the blocks that the program can no longer reach, and slides the
+   * others up towards HB as far as the pinned ones allow, so that the free
+   * space is gathered between the stack and the heap.
+   */
+  void collect () {
+    collections++;
+    marked = new HashSet<Integer>();
+    pinned = new HashSet<Integer>();
+    pending = new ArrayDeque<Integer>();
+    slots = new HashSet<Integer>();
+
+    // mark
+    scanStack();
+    int[] data = vm.data;
+    while (!pending.isEmpty()) {
+      int block = pending.pop();
+      int end = block + blocks.get(block);
+      for (int addr = block; addr < end; addr++)
+        reach(data[addr], -1);
+    }
+
+    // compact, from HB down
+    TreeMap<Integer, Integer> live = new TreeMap<Integer, Integer>();
+    for (int block : marked)
+      live.put(block, blocks.get(block));
+    Map<Integer, Integer> forward = new HashMap<Integer, Integer>();
+    for (TreeSet<Integer> list : lists)
+      list.clear();
+    free.clear();
+    freeWords = 0;
+    int top = vm.HB, oldLiveWords = liveWords;
+    liveWords = 0;
+    for (Map.Entry<Integer, Integer> block : live.descendingMap().entrySet()) {
+      int address = block.getKey(), size = block.getValue();
+      if (pinned.contains(address)) {
+        if (address + size < top)
+          insert(address + size, top - (address + size));
+        top = address;
+      } else {
+        top = top - size;
+        if (top != address) {
+          System.arraycopy(data, address, data, top, size);
+          movedBlocks++;
+        }
+      }
+      forward.put(address, top);
+      liveWords = liveWords + size;
+    }
+    for (int slot : slots) {
+      int block = live.floorKey(data[slot]);
+      data[slot] = data[slot] - block + forward.get(block);
+    }
+    blocks = new TreeMap<Integer, Integer>();
+    for (Map.Entry<Integer, Integer> block : live.entrySet())
+      blocks.put(forward.get(block.getKey()), block.getValue());
+    vm.HT = top;
+    collectedWords = collectedWords + (oldLiveWords - liveWords);
+    marked = pinned = slots = null;
+    pending = null;
+  }
+
+  /**
+   * Writes the high-water mark of the heap and how fragmented it is.
+   */
+  void report (PrintStream out) {
+    int largest = 0;
+    for (int size : free.values())
+      largest = Math.max(largest, size);
+    out.println("Heap: " + allocations + " allocated, " + disposals + " disposed of, high-water mark "
+        + highWater + " words");
+    out.println("      " + (vm.HB - vm.HT) + " words in heap, " + liveWords + " live, "
+        + freeWords + " free in " + free.size() + " blocks (largest " + largest + ")");
+    if (freeWords > 0)
+      out.println("      fragmentation " + (100L * (freeWords - largest) / freeWords) + "%");
+    if (collections > 0)
+      out.println("      " + collections + " collections reclaimed " + collectedWords
+          + " words and moved " + movedBlocks + " blocks");
+  }
+}
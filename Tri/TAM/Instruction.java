@@ -49,6 +49,47 @@ public class Instruction {
     output.writeInt (d);
   }
 
+  // Packs this instruction into one word for the interpreter's code store:
+  // op in bits 56..63, r in bits 48..55, n in bits 32..47 and d in the low
+  // 32 bits, so that a fetch is a single array load.
+  public long pack() {
+    return pack(op, r, n, d);
+  }
+
+  public static long pack(int op, int r, int n, int d) {
+    return ((long) (op & 0xFF) << 56) | ((long) (r & 0xFF) << 48)
+      | ((long) (n & 0xFFFF) << 32) | (d & 0xFFFFFFFFL);
+  }
+
+  // Writes this instruction for an object file in the compact layout (see
+  // ObjectFileHeader): one byte holding op in its low four bits and r in
+  // its high four, or 15 there with r - 15 following as a varint, then n
+  // as a varint and d as a zigzagged varint. Most instructions take three
+  // or four bytes.
+  public void writePacked(DataOutputStream output) throws IOException {
+    output.writeByte ((op & 0xF) | (Math.min(r, 15) << 4));
+    if (r >= 15)
+      ObjectFileHeader.writeVarint (output, r - 15);
+    ObjectFileHeader.writeVarint (output, n);
+    ObjectFileHeader.writeVarint (output, ObjectFileHeader.zigzag(d));
+  }
+
+  public static Instruction readPacked(DataInputStream input) throws IOException {
+    Instruction inst = new Instruction();
+    try {
+      int b = input.readUnsignedByte();
+      inst.op = b & 0xF;
+      inst.r = b >>> 4;
+      if (inst.r == 15)
+        inst.r = 15 + ObjectFileHeader.readVarint(input);
+      inst.n = ObjectFileHeader.readVarint(input);
+      inst.d = ObjectFileHeader.unzigzag(ObjectFileHeader.readVarint(input));
+      return inst;
+    } catch (EOFException s) {
+      return null;
+    }
+  }
+
   public static Instruction read(DataInputStream input) throws IOException {
     Instruction inst = new Instruction();
     try {
@@ -0,0 +1,239 @@
+/*
+ * @(#)Linker.java
+ *
+ * Links separately compiled Triangle modules into one runnable TAM
+ * object program.
+ */
+
+package TAM;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The TAM linker. A module compiled with the Triangle compiler's -module
+ * option exports the headings of its top-level procedures, functions and
+ * types (see ObjectFileHeader.readExports); a program or module compiled
+ * with -import lib.tam may call the routines that lib.tam exports, and
+ * each instruction that does is recorded as an import of the routine's
+ * name. The linker puts the code of the main program first and that of
+ * each module after it, as in
+ * <pre>
+ *   java TAM.Linker -o prog.tam main.tam lib.tam
+ * </pre>
+ * relocating every code address of a module by the address its code now
+ * starts at, and then sets the d-field of each import to the entry
+ * address that some module exports under its name. A name that no module
+ * exports, or that two modules export, is an error, and so is a first
+ * object file whose header says it is a module, or a later one whose
+ * header does not (see ObjectFileHeader.module).
+ *
+ * The line tables of the modules are joined, and their symbol tables and
+ * pointer maps relocated, so that the profiler, the debugger and the
+ * collector work on the linked program as they do on one compiled whole,
+ * and its source table names the file that each module's code was
+ * compiled from (see ObjectFileHeader.sourceCount), so that its lines are
+ * reported against that file.
+ * Only the main program runs: the code of a module's own command, after
+ * its routines, is never reached. A module has no data of its own, so
+ * its string literals are in its code rather than in a constant pool
+ * (see ObjectFileHeader.constantCount), and the linked program has the
+ * main program's pool.
+ */
+
+public class Linker {
+
+  /**
+   * A module as read from its object file.
+   */
+  static class Module {
+
+    final String objectName;
+    final ObjectFileHeader header;
+    final Instruction[] code;
+    final int[] constants;
+    final ArrayList<Integer> lines;
+    final ArrayList<String[]> symbols;
+    final ArrayList<int[]> pointerMaps = new ArrayList<int[]>();
+    final ArrayList<String[]> exports, imports;
+    final TreeMap<Integer, String> sources;
+
+    Module (String objectName) throws IOException {
+      this.objectName = objectName;
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(objectName)));
+      try {
+        header = new ObjectFileHeader(input);
+        code = new Instruction[header.instructionCount];
+        for (int i = 0; i < code.length; i++)
+          code[i] = header.readInstruction(input);
+        constants = header.readConstants(input);
+        lines = header.readLineMap(input);
+        symbols = header.readSymbols(input);
+        for (int i = 0; i < header.pointerMapCount; i++)
+          pointerMaps.add(header.readPointerMap(input));
+        exports = header.readExports(input);
+        imports = header.readImports(input);
+        sources = header.readSources(input);
+      } finally {
+        input.close();
+      }
+    }
+  }
+
+  /**
+   * Returns the exports of the named object file, for the compiler's
+   * -import option. Throws an IOException if the file is not a module.
+   */
+  public static List<String[]> readExports (String objectName) throws IOException {
+    Module module = new Module(objectName);
+    if (!module.header.module)
+      throw new IOException(objectName + " is not a module");
+    return module.exports;
+  }
+
+  /**
+   * Tests whether the instruction's d-field is a code address.
+   */
+  static boolean isCodeAddress (Instruction instr) {
+    switch (instr.op) {
+      case Machine.JUMPop:
+      case Machine.JUMPIFop:
+      case Machine.CALLop:
+      case Machine.LOADAop:
+        return instr.r == Machine.CBr;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Links the modules, the main program first, into the named object
+   * file. Tests whether it succeeded.
+   */
+  static boolean link (List<Module> modules, String objectName) {
+    ArrayList<Instruction> code = new ArrayList<Instruction>();
+    ArrayList<Integer> lines = new ArrayList<Integer>();
+    ArrayList<String[]> symbols = new ArrayList<String[]>();
+    ArrayList<int[]> pointerMaps = new ArrayList<int[]>();
+    HashMap<String, Integer> entries = new HashMap<String, Integer>();
+    HashMap<String, String> exporters = new HashMap<String, String>();
+    TreeMap<Integer, String> sources = new TreeMap<Integer, String>();
+    int[] bases = new int[modules.size()];
+    int dataSize = 0;
+    boolean linked = true;
+
+    // place the code of each module, and relocate its code addresses
+    for (int m = 0; m < modules.size(); m++) {
+      Module module = modules.get(m);
+      // the module's addresses start at CB, as do the linked program's
+      int base = code.size();
+      bases[m] = base;
+      for (Instruction instr : module.code) {
+        if (isCodeAddress(instr))
+          instr.d = instr.d + base;
+        code.add(instr);
+      }
+      lines.addAll(module.lines);
+      if (module.sources.isEmpty())
+        sources.put(Machine.CB + base, module.header.sourceFilename);
+      for (Map.Entry<Integer, String> source : module.sources.entrySet())
+        sources.put(source.getKey() + base, source.getValue());
+      for (String[] symbol : module.symbols)
+        symbols.add(new String[] {symbol[0], "" + (Integer.parseInt(symbol[1]) + base),
+            "" + (Integer.parseInt(symbol[2]) + base)});
+      for (int[] map : module.pointerMaps) {
+        map[0] = map[0] + base;
+        pointerMaps.add(map);
+      }
+      for (String[] export : module.exports) {
+        String other = exporters.put(export[0], module.objectName);
+        if (other != null) {
+          System.err.println ("Error linking: \"" + export[0] + "\" is exported by both "
+              + other + " and " + module.objectName);
+          linked = false;
+        }
+        entries.put(export[0], Integer.parseInt(export[2]) + base);
+      }
+      dataSize = Math.max(dataSize, module.header.dataSize);
+      if ((m == 0) && module.header.module) {
+        System.err.println ("Error linking: " + module.objectName
+            + " is a module, not a main program");
+        linked = false;
+      } else if ((m > 0) && !module.header.module) {
+        System.err.println ("Error linking: " + module.objectName
+            + " is not a module; compile it with -module");
+        linked = false;
+      }
+    }
+
+    // resolve the imports
+    for (int m = 0; m < modules.size(); m++)
+      for (String[] imported : modules.get(m).imports) {
+        Integer entry = entries.get(imported[0]);
+        if (entry == null) {
+          if (exporters.containsKey(imported[0]))
+            continue; // reported already
+          exporters.put(imported[0], null);
+          System.err.println ("Error linking: \"" + imported[0] + "\", imported by "
+              + modules.get(m).objectName + ", is exported by no module");
+          linked = false;
+        } else
+          code.get(Integer.parseInt(imported[1]) - Machine.CB + bases[m]).d = entry;
+      }
+    if (!linked)
+      return false;
+
+    int[] constants = modules.get(0).constants;
+    ObjectFileHeader header = new ObjectFileHeader(modules.get(0).header.sourceFilename,
+        code.size(), symbols.size(), dataSize, pointerMaps.size(), 0, 0, constants.length);
+    header.sourceCount = sources.size();
+    try {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(objectName)));
+      header.write(output);
+      for (Instruction instr : code)
+        header.writeInstruction(output, instr);
+      header.writeConstants(output, constants);
+      header.writeLineMap(output, lines);
+      header.writeSymbols(output, symbols);
+      for (int[] map : pointerMaps)
+        header.writePointerMap(output, map);
+      header.writeSources(output, sources);
+      output.close();
+    } catch (IOException s) {
+      System.err.println ("Error writing object file: " + s);
+      return false;
+    }
+    return true;
+  }
+
+  public static void main (String[] args) {
+    String objectName = "obj.tam";
+    List<Module> modules = new ArrayList<Module>();
+    try {
+      for (int i = 0; i < args.length; i++)
+        if (args[i].equals("-o") && (i + 1 < args.length))
+          objectName = args[++i];
+        else
+          modules.add(new Module(args[i]));
+    } catch (IOException s) {
+      System.err.println ("Error reading object file: " + s);
+      return;
+    }
+    if (modules.isEmpty()) {
+      System.err.println("Usage: java TAM.Linker [-o linked.tam] main.tam [module.tam ...]");
+      return;
+    }
+    if (link(modules, objectName))
+      System.out.println("Linked " + modules.size() + " object files into " + objectName);
+  }
+}
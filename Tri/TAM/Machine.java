@@ -18,7 +18,7 @@ public final class Machine {
 
 
   public final static int
-    maxRoutineLevel = 7;
+    maxRoutineLevel = 63;
 
 // WORDS AND ADDRESSES
 
@@ -56,7 +56,7 @@ public final class Machine {
 
 // CODE STORE
 
-  public static Instruction[] code = new Instruction[1024];
+  public static Instruction[] code = new Instruction[1024];  // grows as needed
 
 
 
@@ -65,7 +65,7 @@ public final class Machine {
 
   public final static int
     CB = 0,
-    PB = 1024,  // = upper bound of code array + 1
+    PB = 1024,  // lowest primitive base; moved up past longer code at load time
     PT = 1052;  // = PB + 28
 
 // REGISTER NUMBERS
@@ -86,7 +86,9 @@ public final class Machine {
     L4r = LBr + 4,
     L5r = LBr + 5,
     L6r = LBr + 6,
-    CPr = 15;
+    CPr = 15,
+    // L7, L8, ... up to maxRoutineLevel are numbered on from L7r
+    L7r = 16;
 
 
 // DATA REPRESENTATION
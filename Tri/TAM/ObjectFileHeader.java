@@ -7,6 +7,10 @@ package TAM;
 import java.io.DataOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * 
@@ -19,6 +23,13 @@ public class ObjectFileHeader {
 	// we're reading the right kind of file
 	public int magicNumber;
 	
+	// Version of the layout of the file. Files with the earlier magic
+	// numbers have versions 0 to 2, one for each magic number; files with
+	// compactObjMagic give their version after it, starting at
+	// compactVersion, so that the compact layout can change without using
+	// up magic numbers.
+	public int version;
+	
 	// Triangle source file name from which the object was created
 	public String sourceFilename;
 	
@@ -33,14 +44,76 @@ public class ObjectFileHeader {
 	// be different than the instructionCount)
 	public int symbolCount;
 	
+	// How many words of data store does the program need? (0 if it doesn't
+	// say, and in files with the original magic number, which have no such
+	// field)
+	public int dataSize;
+	
+	// How many routines have a pointer map (see Heap)? (0 in files with
+	// the earlier magic numbers, which have no such field or section)
+	public int pointerMapCount;
+	
+	// How many entries are there in the export and import tables, which
+	// follow the pointer maps? (0 before linkVersion.) A module compiled
+	// for separate compilation exports the headings of its top-level
+	// routines and types, and each instruction that calls or loads the
+	// address of a routine of another module is an import, which TAM.Linker
+	// resolves; a file with imports cannot be run.
+	public int exportCount;
+	public int importCount;
+	
+	// How many entries are there in the source table, which follows the
+	// imports? (0 before linkVersion.) A program linked from several object
+	// files names, for each of them, the source file its code was compiled
+	// from and the address that code starts at, so that its lines are
+	// reported against the right file; the code of a program with no
+	// entries all comes from sourceFilename.
+	public int sourceCount;
+	
+	// Is the file a module, compiled with the Triangle compiler's -module
+	// option, rather than a main program? TAM.Linker takes a main program
+	// and then only modules. (false before linkVersion.)
+	public boolean module;
+	
+	// How many words are there in the constant pool, which follows the
+	// code? (0 before poolVersion.) The pool holds the string literals of
+	// the program and a block of zeros, and is loaded into the bottom of
+	// the data store, under the globals, before the program runs.
+	public int constantCount;
+	
 	/*
 	 * Constructor for making a header after we've parsed the source code
 	 */
 	public ObjectFileHeader(String fileName, int instructions, int symbols) {
-		magicNumber = triangleObjMagic;
+		this(fileName, instructions, symbols, 0);
+	}
+	
+	public ObjectFileHeader(String fileName, int instructions, int symbols, int data) {
+		this(fileName, instructions, symbols, data, 0);
+	}
+	
+	public ObjectFileHeader(String fileName, int instructions, int symbols, int data,
+			int pointerMaps) {
+		this(fileName, instructions, symbols, data, pointerMaps, 0, 0);
+	}
+	
+	public ObjectFileHeader(String fileName, int instructions, int symbols, int data,
+			int pointerMaps, int exports, int imports) {
+		this(fileName, instructions, symbols, data, pointerMaps, exports, imports, 0);
+	}
+	
+	public ObjectFileHeader(String fileName, int instructions, int symbols, int data,
+			int pointerMaps, int exports, int imports, int constants) {
+		magicNumber = compactObjMagic;
+		version = poolVersion;
+		constantCount = constants;
 		sourceFilename = fileName;
 		instructionCount = lineNumberCount = instructions;
 		symbolCount = symbols;
+		dataSize = data;
+		pointerMapCount = pointerMaps;
+		exportCount = exports;
+		importCount = imports;
 	}
 	
 	/*
@@ -49,10 +122,33 @@ public class ObjectFileHeader {
 	public ObjectFileHeader(DataInputStream input) throws IOException {
 	    // Read the magic number and make sure it's right
 		magicNumber = input.readInt ();
-	    if (magicNumber != triangleObjMagic) {
+	    if (magicNumber < triangleObjMagic || magicNumber > compactObjMagic) {
 	    	throw new IOException("Not a triangle object file");
 	    }
 	    
+	    if (magicNumber == compactObjMagic) {
+	    	version = readVarint(input);
+	    	if (version > poolVersion)
+	    		throw new IOException("Object file version " + version + " is newer than this loader");
+	    	// The counts and the filename, without padding
+	    	sourceFilename = input.readUTF();
+	    	instructionCount = readVarint(input);
+	    	lineNumberCount = readVarint(input);
+	    	symbolCount = readVarint(input);
+	    	dataSize = readVarint(input);
+	    	pointerMapCount = readVarint(input);
+	    	if (version >= linkVersion) {
+	    		exportCount = readVarint(input);
+	    		importCount = readVarint(input);
+	    		sourceCount = readVarint(input);
+	    		module = (readVarint(input) != 0);
+	    	}
+	    	if (version >= poolVersion)
+	    		constantCount = readVarint(input);
+	    	return;
+	    }
+	    version = magicNumber - triangleObjMagic;
+	    
 	    // Read the source filename, which is a fixed number of characters
 	    char[] characters = new char[stringFieldLength];
 	    for (int i = 0; i < stringFieldLength; i++) {
@@ -68,6 +164,10 @@ public class ObjectFileHeader {
 	    instructionCount = input.readInt();
 	    lineNumberCount = input.readInt();
 	    symbolCount = input.readInt();
+	    if (magicNumber >= sizedObjMagic)
+	    	dataSize = input.readInt();
+	    if (magicNumber >= pointerMapObjMagic)
+	    	pointerMapCount = input.readInt();
 	}
 	
 	/*
@@ -76,6 +176,24 @@ public class ObjectFileHeader {
 	public void write(DataOutputStream output) throws IOException {
 		// Simple, just write every field in order
 	    output.writeInt (magicNumber);
+	    if (isCompact()) {
+	    	writeVarint(output, version);
+	    	output.writeUTF(sourceFilename);
+	    	writeVarint(output, instructionCount);
+	    	writeVarint(output, lineNumberCount);
+	    	writeVarint(output, symbolCount);
+	    	writeVarint(output, dataSize);
+	    	writeVarint(output, pointerMapCount);
+	    	if (version >= linkVersion) {
+	    		writeVarint(output, exportCount);
+	    		writeVarint(output, importCount);
+	    		writeVarint(output, sourceCount);
+	    		writeVarint(output, module ? 1 : 0);
+	    	}
+	    	if (version >= poolVersion)
+	    		writeVarint(output, constantCount);
+	    	return;
+	    }
 	    // We use String.format to guarantee that the filename is the
 	    // correct length - this will pad it with spaces until it's
 	    // exactly stringFieldLenth characters long
@@ -84,12 +202,237 @@ public class ObjectFileHeader {
 	    output.writeInt(instructionCount);
 	    output.writeInt (lineNumberCount);
 	    output.writeInt (symbolCount);
+	    if (magicNumber >= sizedObjMagic)
+	    	output.writeInt (dataSize);
+	    if (magicNumber >= pointerMapObjMagic)
+	    	output.writeInt (pointerMapCount);
 	  }
 	
+	/*
+	 * Whether the sections after this header are in the compact layout:
+	 * packed instructions (see Instruction.writePacked), the line of each
+	 * instruction as a varint of its difference from the line before,
+	 * each symbol as its name and its address range in varints, and each
+	 * pointer map as varints. In the earlier layouts every field is a
+	 * 4-byte int, and a symbol's addresses are strings of UTF-16 digits.
+	 */
+	public boolean isCompact() {
+		return version >= compactVersion;
+	}
+	
+	/*
+	 * Read and write the sections that follow the header, in the layout
+	 * that it gives
+	 */
+	public Instruction readInstruction(DataInputStream input) throws IOException {
+		return isCompact() ? Instruction.readPacked(input) : Instruction.read(input);
+	}
+	
+	public void writeInstruction(DataOutputStream output, Instruction instr) throws IOException {
+		if (isCompact())
+			instr.writePacked(output);
+		else
+			instr.write(output);
+	}
+	
+	// The constant pool, a varint for each word
+	public int[] readConstants(DataInputStream input) throws IOException {
+		int[] constants = new int[constantCount];
+		for (int i = 0; i < constantCount; i++)
+			constants[i] = readVarint(input);
+		return constants;
+	}
+	
+	public void writeConstants(DataOutputStream output, int[] constants) throws IOException {
+		for (int word : constants)
+			writeVarint(output, word);
+	}
+	
+	public ArrayList<Integer> readLineMap(DataInputStream input) throws IOException {
+		ArrayList<Integer> lines = new ArrayList<Integer>(lineNumberCount);
+		int line = 0;
+		for (int i = 0; i < lineNumberCount; i++) {
+			if (isCompact())
+				line = line + unzigzag(readVarint(input));
+			else
+				line = input.readInt();
+			lines.add(line);
+		}
+		return lines;
+	}
+	
+	public void writeLineMap(DataOutputStream output, List<Integer> lines) throws IOException {
+		int previous = 0;
+		for (int line : lines) {
+			if (isCompact())
+				writeVarint(output, zigzag(line - previous));
+			else
+				output.writeInt(line);
+			previous = line;
+		}
+	}
+	
+	// Each symbol is a routine's name, entry address and last address
+	public ArrayList<String[]> readSymbols(DataInputStream input) throws IOException {
+		ArrayList<String[]> symbols = new ArrayList<String[]>(symbolCount);
+		for (int i = 0; i < symbolCount; i++) {
+			String[] symbol = new String[3];
+			if (isCompact()) {
+				symbol[0] = input.readUTF();
+				int start = readVarint(input);
+				symbol[1] = "" + start;
+				symbol[2] = "" + (start + unzigzag(readVarint(input)));
+			} else
+				for (int j = 0; j < 3; j++) {
+					char[] characters = new char[input.readInt()];
+					for (int k = 0; k < characters.length; k++)
+						characters[k] = input.readChar();
+					symbol[j] = new String(characters);
+				}
+			symbols.add(symbol);
+		}
+		return symbols;
+	}
+	
+	public void writeSymbols(DataOutputStream output, List<String[]> symbols) throws IOException {
+		for (String[] symbol : symbols) {
+			if (isCompact()) {
+				int start = Integer.parseInt(symbol[1]);
+				output.writeUTF(symbol[0]);
+				writeVarint(output, start);
+				writeVarint(output, zigzag(Integer.parseInt(symbol[2]) - start));
+			} else
+				for (String string : symbol) {
+					output.writeInt(string.length());
+					output.writeChars(string);
+				}
+		}
+	}
+	
+	// Each pointer map is its number of words, a routine's entry address
+	// and the words
+	public int[] readPointerMap(DataInputStream input) throws IOException {
+		int[] map = new int[1 + (isCompact() ? readVarint(input) : input.readInt())];
+		for (int i = 0; i < map.length; i++)
+			map[i] = isCompact() ? readVarint(input) : input.readInt();
+		return map;
+	}
+	
+	public void writePointerMap(DataOutputStream output, int[] map) throws IOException {
+		if (isCompact())
+			writeVarint(output, map.length - 1);
+		else
+			output.writeInt(map.length - 1);
+		for (int word : map)
+			if (isCompact())
+				writeVarint(output, word);
+			else
+				output.writeInt(word);
+	}
+	
+	// Each export is a name, the heading that declares it, as Triangle
+	// source (see Triangle.CodeGenerator.Heading), and the entry address of
+	// a routine (0 for a type)
+	public ArrayList<String[]> readExports(DataInputStream input) throws IOException {
+		ArrayList<String[]> exports = new ArrayList<String[]>(exportCount);
+		for (int i = 0; i < exportCount; i++)
+			exports.add(new String[] {input.readUTF(), input.readUTF(), "" + readVarint(input)});
+		return exports;
+	}
+	
+	public void writeExports(DataOutputStream output, List<String[]> exports) throws IOException {
+		for (String[] export : exports) {
+			output.writeUTF(export[0]);
+			output.writeUTF(export[1]);
+			writeVarint(output, Integer.parseInt(export[2]));
+		}
+	}
+	
+	// Each import is the name of a routine and the address of the
+	// instruction whose d-field is to be its entry address
+	public ArrayList<String[]> readImports(DataInputStream input) throws IOException {
+		ArrayList<String[]> imports = new ArrayList<String[]>(importCount);
+		for (int i = 0; i < importCount; i++)
+			imports.add(new String[] {input.readUTF(), "" + readVarint(input)});
+		return imports;
+	}
+	
+	public void writeImports(DataOutputStream output, List<String[]> imports) throws IOException {
+		for (String[] imported : imports) {
+			output.writeUTF(imported[0]);
+			writeVarint(output, Integer.parseInt(imported[1]));
+		}
+	}
+	
+	// Each source is the address that the code compiled from a file starts
+	// at, and the name of the file
+	public TreeMap<Integer, String> readSources(DataInputStream input) throws IOException {
+		TreeMap<Integer, String> sources = new TreeMap<Integer, String>();
+		for (int i = 0; i < sourceCount; i++) {
+			int start = readVarint(input);
+			sources.put(start, input.readUTF());
+		}
+		return sources;
+	}
+	
+	public void writeSources(DataOutputStream output, Map<Integer, String> sources) throws IOException {
+		for (Map.Entry<Integer, String> source : sources.entrySet()) {
+			writeVarint(output, source.getKey());
+			output.writeUTF(source.getValue());
+		}
+	}
+	
+	/*
+	 * Varints: seven bits to a byte, least significant first, with the
+	 * top bit set in every byte but the last. Signed values are zigzagged
+	 * first, so that small negative numbers stay short.
+	 */
+	public static void writeVarint(DataOutputStream output, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			output.writeByte((value & 0x7F) | 0x80);
+			value = value >>> 7;
+		}
+		output.writeByte(value);
+	}
+	
+	public static int readVarint(DataInputStream input) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift = shift + 7) {
+			int b = input.readUnsignedByte();
+			value = value | ((b & 0x7F) << shift);
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+	public static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+	
+	public static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
 	/*
 	 * Constants - the standard magic number, and the length of the filename
 	 * field
 	 */
 	public static final Integer triangleObjMagic = 17232;
+	// Magic number of object files whose header ends with the data size
+	public static final Integer sizedObjMagic = 17233;
+	// Magic number of object files whose header then gives the number of
+	// pointer maps, which follow the symbol table
+	public static final Integer pointerMapObjMagic = 17234;
+	// Magic number of object files in the compact layout, whose version
+	// follows it
+	public static final Integer compactObjMagic = 17235;
+	// The first version of the compact layout
+	public static final int compactVersion = 3;
+	// The version that adds the export, import and source tables and the
+	// module flag
+	public static final int linkVersion = 4;
+	// The version that adds the constant pool, and the one written
+	public static final int poolVersion = 5;
 	public static final Integer stringFieldLength = 64;
 }
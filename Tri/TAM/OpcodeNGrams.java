@@ -0,0 +1,172 @@
+/*
+ * @(#)OpcodeNGrams.java
+ *
+ * Mines the most frequent opcode sequences from a corpus of TAM object
+ * programs, to decide which sequences are worth fusing into
+ * superinstructions (see TamVM.fuse).
+ */
+
+package TAM;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the opcode n-grams in the given TAM object files, and displays
+ * the most frequent ones on standard output.
+ *
+ * For example:
+ * <pre>
+ *   java TAM.OpcodeNGrams -n 2 -top 20 programs/
+ * </pre>
+ *
+ * Directories are searched recursively for <code>.tam</code> files. A CALL
+ * to a primitive routine is counted under the name of the primitive, so
+ * <code>LOADL; CALL add</code> and <code>LOADL; CALL mult</code> are
+ * different bigrams. A sequence is not counted if a jump or a return can
+ * land in its middle, since control arriving there does not run the
+ * sequence as a whole.
+ */
+
+public class OpcodeNGrams {
+
+  static int length = 2;
+
+  static int top = 25;
+
+  static Map<String, Integer> counts = new HashMap<String, Integer>();
+
+  static int files;
+
+  static final String[] opNames = {
+    "LOAD", "LOADA", "LOADI", "LOADL", "STORE", "STOREI", "CALL", "CALLI",
+    "RETURN", "?9", "PUSH", "POP", "JUMP", "JUMPI", "JUMPIF", "HALT"
+  };
+
+  static final String[] primitiveNames = {
+    "?0", "id", "not", "and", "or", "succ", "pred", "neg", "add", "sub",
+    "mult", "div", "mod", "lt", "le", "ge", "gt", "eq", "ne", "eol", "eof",
+    "get", "put", "geteol", "puteol", "getint", "putint", "new", "dispose",
+    "puts", "bef", "aft", "range", "halt", "arrayCheck"
+  };
+
+  /**
+   * Returns the name under which an instruction is counted.
+   * @param instr	the instruction.
+   */
+  static String name (Instruction instr) {
+    if (instr.op < 0 || instr.op >= opNames.length)
+      return "?" + instr.op;
+    if (instr.op == Machine.CALLop && instr.r == Machine.PBr) {
+      if (instr.d >= 0 && instr.d < primitiveNames.length)
+        return "CALL " + primitiveNames[instr.d];
+      return "CALL ?" + instr.d;
+    }
+    return opNames[instr.op];
+  }
+
+  /**
+   * Counts the n-grams of one object program.
+   * @param objectName	the name of the file containing the program.
+   */
+  static void countProgram (String objectName) {
+    List<Instruction> program = new ArrayList<Instruction>();
+
+    try {
+      DataInputStream objectStream =
+        new DataInputStream(new FileInputStream(objectName));
+      ObjectFileHeader header = new ObjectFileHeader(objectStream);
+      for (int i = 0; i < header.instructionCount; i++) {
+        Instruction instr = header.readInstruction(objectStream);
+        if (instr == null)
+          break;
+        program.add(instr);
+      }
+      objectStream.close();
+    } catch (IOException s) {
+      System.err.println ("Error reading object file " + objectName + ": " + s);
+      return;
+    }
+    files++;
+
+    // Code addresses that a jump or call can land on.
+    boolean[] target = new boolean[program.size() + 1];
+    for (int addr = 0; addr < program.size(); addr++) {
+      Instruction instr = program.get(addr);
+      boolean toCode = (instr.r == Machine.CBr) && (instr.op == Machine.JUMPop
+          || instr.op == Machine.JUMPIFop || instr.op == Machine.CALLop
+          || instr.op == Machine.LOADAop);
+      if (toCode && instr.d >= 0 && instr.d < target.length)
+        target[instr.d] = true;
+      if (instr.op == Machine.CALLop && instr.r != Machine.PBr
+          || instr.op == Machine.CALLIop)
+        target[addr + 1] = true; // return address
+    }
+
+    for (int addr = 0; addr + length <= program.size(); addr++) {
+      StringBuilder key = new StringBuilder(name(program.get(addr)));
+      boolean fusable = true;
+      for (int i = 1; i < length && fusable; i++) {
+        fusable = !target[addr + i];
+        key.append("; ").append(name(program.get(addr + i)));
+      }
+      if (fusable) {
+        Integer count = counts.get(key.toString());
+        counts.put(key.toString(), count == null ? 1 : count + 1);
+      }
+    }
+  }
+
+  /**
+   * Counts the n-grams of every object program in or below the given file.
+   */
+  static void countFile (File file) {
+    if (file.isDirectory()) {
+      File[] entries = file.listFiles();
+      if (entries != null)
+        for (File entry : entries)
+          if (entry.isDirectory() || entry.getName().endsWith(".tam"))
+            countFile(entry);
+    } else
+      countProgram(file.getPath());
+  }
+
+  public static void main(String[] args) {
+    System.out.println ("********** TAM Opcode N-Grams **********");
+
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-n") && i + 1 < args.length)
+        length = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-top") && i + 1 < args.length)
+        top = Integer.parseInt(args[++i]);
+      else
+        names.add(args[i]);
+    }
+    if (names.isEmpty())
+      names.add("obj.tam");
+
+    for (String name : names)
+      countFile(new File(name));
+
+    List<Map.Entry<String, Integer>> entries =
+      new ArrayList<Map.Entry<String, Integer>>(counts.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+      public int compare (Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+        return b.getValue().compareTo(a.getValue());
+      }
+    });
+    System.out.println (files + " file(s), " + length + "-grams:");
+    for (int i = 0; i < entries.size() && i < top; i++)
+      System.out.println (String.format("%8d  %s", entries.get(i).getValue(),
+          entries.get(i).getKey()));
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * @(#)Profiler.java
+ *
+ * Counts the instructions a TamVM executes at each code address, and
+ * reports them by routine and by source line.
+ */
+
+package TAM;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An exact profile of a run: the number of times each instruction was
+ * executed. While a machine has a profiler (the -profile option) it runs
+ * every instruction in interpretProfiled, without superinstructions,
+ * translation or a cached top of stack, so that each count is that of
+ * one instruction of the object program.
+ *
+ * At the end of the run the counts are added up by routine, each
+ * instruction counting for the innermost routine of the functionMap that
+ * holds it (or the main program), and by source file and line through
+ * TamVM.fileAt and the lineMap. The report lists the routines and the
+ * busiest lines, most executed first; the file holds every routine, line
+ * and address, one to a line with tab-separated fields, for other tools
+ * to read, and the records of the lines of each source file follow a
+ * record that names it.
+ */
+
+public class Profiler {
+
+  // The busiest lines that the report lists.
+  static final int reportedLines = 20;
+
+  final TamVM vm;
+
+  // The instructions executed at each code address.
+  final long[] counts;
+
+  Profiler (TamVM vm) {
+    this.vm = vm;
+    counts = new long[vm.CT];
+  }
+
+  /**
+   * A line of a source file.
+   */
+  static class Line implements Comparable<Line> {
+
+    final String file;
+    final int line;
+
+    Line (String file, int line) {
+      this.file = file;
+      this.line = line;
+    }
+
+    public int compareTo (Line other) {
+      int order = file.compareTo(other.file);
+      return (order != 0) ? order : Integer.compare(line, other.line);
+    }
+
+    public String toString () {
+      return file + ":" + line;
+    }
+  }
+
+  long total () {
+    long total = 0;
+    for (long count : counts)
+      total = total + count;
+    return total;
+  }
+
+  /**
+   * Returns the name of the routine at each entry address.
+   */
+  Map<Integer, String> names () {
+    Map<Integer, String> names = new HashMap<Integer, String>();
+    names.put(TamVM.CB, "main");
+    for (String[] routine : vm.functionMap())
+      names.put(Integer.parseInt(routine[1]), routine[0]);
+    return names;
+  }
+
+  /**
+   * Returns the instructions executed in each routine, by entry address.
+   */
+  TreeMap<Integer, Long> byRoutine () {
+    int[] owner = vm.routines();
+    TreeMap<Integer, Long> routines = new TreeMap<Integer, Long>();
+    for (int addr = TamVM.CB; addr < counts.length; addr++)
+      if (counts[addr] > 0) {
+        Long count = routines.get(owner[addr]);
+        routines.put(owner[addr], (count == null ? 0 : count) + counts[addr]);
+      }
+    return routines;
+  }
+
+  /**
+   * Returns the instructions executed on each line of each source file.
+   */
+  TreeMap<Line, Long> byLine () {
+    TreeMap<Line, Long> lines = new TreeMap<Line, Long>();
+    for (int addr = TamVM.CB; addr < counts.length; addr++)
+      if (counts[addr] > 0) {
+        Line line = new Line(vm.fileAt(addr), vm.lineMap().get(addr));
+        Long count = lines.get(line);
+        lines.put(line, (count == null ? 0 : count) + counts[addr]);
+      }
+    return lines;
+  }
+
+  static <K extends Comparable<K>> List<Map.Entry<K, Long>> busiestFirst (Map<K, Long> counts) {
+    List<Map.Entry<K, Long>> entries = new ArrayList<Map.Entry<K, Long>>(counts.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<K, Long>>() {
+      public int compare (Map.Entry<K, Long> a, Map.Entry<K, Long> b) {
+        return (a.getValue().equals(b.getValue())) ? a.getKey().compareTo(b.getKey())
+          : b.getValue().compareTo(a.getValue());
+      }
+    });
+    return entries;
+  }
+
+  static String percent (long count, long total) {
+    return String.format("%5.1f%%", (total == 0) ? 0.0 : 100.0 * count / total);
+  }
+
+  /**
+   * Writes the routines, and the busiest lines, most executed first.
+   */
+  void report (PrintStream out) {
+    long total = total();
+    Map<Integer, String> names = names();
+    out.println("Profile: " + total + " instructions executed");
+    out.println("  Routines:");
+    for (Map.Entry<Integer, Long> routine : busiestFirst(byRoutine()))
+      out.println(String.format("  %12d %s  %s (%d)", routine.getValue(),
+          percent(routine.getValue(), total), names.get(routine.getKey()), routine.getKey()));
+    out.println("  Lines:");
+    int listed = 0;
+    for (Map.Entry<Line, Long> line : busiestFirst(byLine())) {
+      if (listed++ == reportedLines)
+        break;
+      out.println(String.format("  %12d %s  %s", line.getValue(),
+          percent(line.getValue(), total), line.getKey()));
+    }
+  }
+
+  /**
+   * Writes the whole profile to the named file: a total record, then a
+   * record for each routine, line and address that was executed.
+   */
+  void write (String profileName) {
+    try {
+      PrintWriter file = new PrintWriter(new FileWriter(profileName));
+      Map<Integer, String> names = names();
+      file.println("total\t" + vm.fileName + "\t" + total());
+      for (Map.Entry<Integer, Long> routine : byRoutine().entrySet())
+        file.println("routine\t" + names.get(routine.getKey()) + "\t" + routine.getKey()
+            + "\t" + routine.getValue());
+      String source = null;
+      for (Map.Entry<Line, Long> line : byLine().entrySet()) {
+        if (!line.getKey().file.equals(source)) {
+          source = line.getKey().file;
+          file.println("file\t" + source);
+        }
+        file.println("line\t" + line.getKey().line + "\t" + line.getValue());
+      }
+      for (int addr = TamVM.CB; addr < counts.length; addr++)
+        if (counts[addr] > 0)
+          file.println("address\t" + addr + "\t" + vm.lineMap().get(addr) + "\t" + counts[addr]);
+      file.close();
+      if (file.checkError())
+        throw new IOException("write failed");
+    } catch (IOException s) {
+      System.err.println ("Error writing profile: " + s);
+    }
+  }
+}
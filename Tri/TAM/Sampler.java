@@ -0,0 +1,131 @@
+/*
+ * @(#)Sampler.java
+ *
+ * Samples the call stack of a running TamVM, for flame graphs.
+ */
+
+package TAM;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A sampling profiler. While a machine has a sampler (the -sample option)
+ * it takes a sample each time the run spends another interval of fuel
+ * (see TamVM.charge and TamVM.meter), so that sampling costs nothing
+ * between samples. A sample walks the frames from LB along their dynamic
+ * links, as TamVM.dump does, and names the routine of each: the routine
+ * holding CP for the top frame, and the routine holding the call for each
+ * frame below.
+ *
+ * Routines are found in an index of the code: the start of each stretch
+ * of code that belongs to one routine (the innermost, if they nest), in
+ * ascending order, searched by bisection.
+ *
+ * The samples are written in the collapsed-stack format that flame-graph
+ * tools read: one line for each distinct stack, the routines from main to
+ * the top separated by semicolons, then the number of samples.
+ */
+
+public class Sampler {
+
+  final TamVM vm;
+
+  // The first code address of each stretch of code, ascending, and the
+  // name of the routine that it belongs to.
+  final int[] starts;
+  final String[] names;
+
+  // The number of samples of each stack.
+  final TreeMap<String, Long> stacks = new TreeMap<String, Long>();
+
+  final StringBuilder stack = new StringBuilder();
+  final List<String> frames = new ArrayList<String>();
+
+  Sampler (TamVM vm) {
+    this.vm = vm;
+    String[] byEntry = new String[vm.CT];
+    byEntry[TamVM.CB] = "main";
+    for (String[] routine : vm.functionMap()) {
+      int entry = Integer.parseInt(routine[1]);
+      if ((entry > TamVM.CB) && (entry < vm.CT))
+        byEntry[entry] = routine[0];
+    }
+    int[] owner = vm.routines();
+    int count = 0;
+    for (int addr = TamVM.CB; addr < vm.CT; addr++)
+      if ((addr == TamVM.CB) || (owner[addr] != owner[addr - 1]))
+        count++;
+    starts = new int[count];
+    names = new String[count];
+    count = 0;
+    for (int addr = TamVM.CB; addr < vm.CT; addr++)
+      if ((addr == TamVM.CB) || (owner[addr] != owner[addr - 1])) {
+        starts[count] = addr;
+        names[count] = byEntry[owner[addr]];
+        count++;
+      }
+  }
+
+  /**
+   * Returns the name of the routine holding the code address addr.
+   */
+  String routineAt (int addr) {
+    int i = Arrays.binarySearch(starts, addr);
+    if (i < 0)
+      i = -i - 2;
+    return (i < 0) ? "?" : names[i];
+  }
+
+  /**
+   * Records the current stack of the machine.
+   */
+  void sample () {
+    int[] data = vm.data;
+    int base = vm.LB, address = vm.CP;
+    frames.clear();
+    for (;;) {
+      frames.add(routineAt(address));
+      if (base == TamVM.SB)
+        break;
+      int link = data[base + 1];
+      address = data[base + 2] - 1; // the call
+      if ((link < TamVM.SB) || (link >= base)) {
+        frames.add("?");
+        break;
+      }
+      base = link;
+    }
+    stack.setLength(0);
+    for (int i = frames.size() - 1; i >= 0; i--) {
+      stack.append(frames.get(i));
+      if (i > 0)
+        stack.append(';');
+    }
+    String key = stack.toString();
+    Long count = stacks.get(key);
+    stacks.put(key, (count == null) ? 1 : count + 1);
+  }
+
+  /**
+   * Writes the samples to the named file, in collapsed-stack format.
+   */
+  void write (String sampleName) {
+    try {
+      PrintWriter file = new PrintWriter(new FileWriter(sampleName));
+      for (Map.Entry<String, Long> stack : stacks.entrySet())
+        file.println(stack.getKey() + " " + stack.getValue());
+      file.close();
+      if (file.checkError())
+        throw new IOException("write failed");
+    } catch (IOException s) {
+      System.err.println ("Error writing samples: " + s);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * @(#)Snapshot.java
+ *
+ * Saves the state of a TamVM part way through a run to a file, and
+ * restores it, so that the run can go on later from where it was.
+ */
+
+package TAM;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A snapshot of a TamVM: the loaded program, written as an object file,
+ * followed by the registers, the words of the data store from SB to ST and
+ * from HT to HB, the display, the allocator's blocks and free lists, the
+ * character last read, and the breakpoint the machine stopped at, if it
+ * did. The space between ST and HT is not written, and the whole is
+ * compressed.
+ *
+ * A snapshot is taken only when the machine has stopped with its state in
+ * the data store and registers: when the run is suspended at a checkpoint,
+ * when it runs out of fuel or time, or when it stops at a breakpoint (see
+ * TamVM.finish). Either way CP is where the program goes on, so a restored
+ * machine runs it on as if it had never stopped, past the breakpoint it
+ * stopped at, with a new budget of fuel and time. Output already
+ * written, and input already read beyond the character last read, are
+ * not part of the snapshot.
+ */
+
+public class Snapshot {
+
+  static final int snapshotMagic = 17300;
+
+  /**
+   * Writes the state of the given machine to the named file. Tests
+   * whether it did.
+   */
+  static boolean write (TamVM vm, String snapshotName) {
+    try {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+          new GZIPOutputStream(new FileOutputStream(snapshotName))));
+      output.writeInt(snapshotMagic);
+      writeProgram(vm, output);
+      output.writeUTF(vm.objectName);
+
+      output.writeInt(vm.HB);
+      output.writeInt(vm.CP);
+      output.writeInt(vm.LB);
+      output.writeInt(vm.ST);
+      output.writeInt(vm.HT);
+      for (int addr = TamVM.SB; addr < vm.ST; addr++)
+        output.writeInt(vm.data[addr]);
+      for (int addr = vm.HT; addr < vm.HB; addr++)
+        output.writeInt(vm.data[addr]);
+
+      // the display up to the end of the current frame's segment
+      int length = vm.DP + vm.display[vm.DP - 1] + 1;
+      output.writeInt(vm.DP);
+      output.writeInt(length);
+      for (int i = 0; i < length; i++)
+        output.writeInt(vm.display[i]);
+      int frames = 0;
+      for (int addr = TamVM.SB; addr < vm.ST; addr++)
+        if (vm.segmentOf[addr] != 0)
+          frames++;
+      output.writeInt(frames);
+      for (int addr = TamVM.SB; addr < vm.ST; addr++)
+        if (vm.segmentOf[addr] != 0) {
+          output.writeInt(addr);
+          output.writeInt(vm.segmentOf[addr]);
+        }
+
+      Heap heap = vm.heap;
+      output.writeInt(heap.allocations);
+      output.writeInt(heap.disposals);
+      output.writeInt(heap.highWater);
+      output.writeInt(heap.collections);
+      output.writeInt(heap.collectedWords);
+      output.writeInt(heap.movedBlocks);
+      writeBlocks(heap.blocks, output);
+      writeBlocks(heap.free, output);
+
+      output.writeInt(vm.io.currentChar);
+      output.writeInt((vm.status == TamVM.stopped) ? vm.breakpoints.passing : -1);
+      output.close();
+      return true;
+    } catch (IOException s) {
+      System.err.println ("Error writing snapshot: " + s);
+      return false;
+    }
+  }
+
+  /**
+   * Writes the program the given machine has loaded as an object file.
+   */
+  static void writeProgram (TamVM vm, DataOutputStream output) throws IOException {
+    ObjectFileHeader header = new ObjectFileHeader(vm.fileName, vm.CT - TamVM.CB,
+        vm.functionMap().size(), vm.HB, vm.pointerMaps().size(), 0, 0, vm.constants.length);
+    header.sourceCount = vm.sources().size();
+    header.write(output);
+    for (int addr = TamVM.CB; addr < vm.CT; addr++)
+      header.writeInstruction(output, vm.instructions[addr]);
+    header.writeConstants(output, vm.constants);
+    header.writeLineMap(output, vm.lineMap().subList(0, vm.CT - TamVM.CB));
+    header.writeSymbols(output, vm.functionMap());
+    for (Map.Entry<Integer, BitSet> map : vm.pointerMaps().entrySet()) {
+      long[] bits = map.getValue().toLongArray();
+      int[] words = new int[1 + (map.getValue().length() + 31) / 32];
+      words[0] = map.getKey();
+      for (int j = 1; j < words.length; j++)
+        words[j] = (int) (bits[(j - 1) / 2] >>> (32 * ((j - 1) % 2)));
+      header.writePointerMap(output, words);
+    }
+    header.writeSources(output, vm.sources());
+  }
+
+  static void writeBlocks (Map<Integer, Integer> blocks, DataOutputStream output) throws IOException {
+    output.writeInt(blocks.size());
+    for (Map.Entry<Integer, Integer> block : blocks.entrySet()) {
+      output.writeInt(block.getKey());
+      output.writeInt(block.getValue());
+    }
+  }
+
+  /**
+   * Restores the given machine from the named file, ready to run on from
+   * CP. Tests whether it did; if not, the machine has no program.
+   */
+  static boolean read (TamVM vm, String snapshotName) {
+    try {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(
+          new GZIPInputStream(new FileInputStream(snapshotName))));
+      if (input.readInt() != snapshotMagic)
+        throw new IOException("Not a TAM snapshot");
+      vm.readObjectProgram(input);
+      vm.objectName = input.readUTF();
+
+      vm.HB = input.readInt();
+      vm.data = new int[vm.HB];
+      vm.CP = input.readInt();
+      vm.LB = input.readInt();
+      vm.ST = input.readInt();
+      vm.HT = input.readInt();
+      if ((vm.ST < TamVM.SB) || (vm.ST > vm.HT) || (vm.HT > vm.HB))
+        throw new IOException("Inconsistent snapshot");
+      for (int addr = TamVM.SB; addr < vm.ST; addr++)
+        vm.data[addr] = input.readInt();
+      for (int addr = vm.HT; addr < vm.HB; addr++)
+        vm.data[addr] = input.readInt();
+
+      vm.DP = input.readInt();
+      int length = input.readInt();
+      vm.display = new int[Math.max(64, 2 * length)];
+      for (int i = 0; i < length; i++)
+        vm.display[i] = input.readInt();
+      vm.segmentOf = new int[vm.HB];
+      for (int frames = input.readInt(); frames > 0; frames--) {
+        int addr = input.readInt();
+        vm.segmentOf[addr] = input.readInt();
+      }
+
+      Heap heap = new Heap(vm);
+      heap.allocations = input.readInt();
+      heap.disposals = input.readInt();
+      heap.highWater = input.readInt();
+      heap.collections = input.readInt();
+      heap.collectedWords = input.readInt();
+      heap.movedBlocks = input.readInt();
+      for (int blocks = input.readInt(); blocks > 0; blocks--) {
+        int address = input.readInt(), size = input.readInt();
+        heap.blocks.put(address, size);
+        heap.liveWords = heap.liveWords + size;
+      }
+      for (int blocks = input.readInt(); blocks > 0; blocks--) {
+        int address = input.readInt(), size = input.readInt();
+        heap.insert(address, size);
+      }
+      vm.heap = heap;
+
+      vm.io.currentChar = input.readInt();
+      int passing = input.readInt();
+      if (passing >= 0) {
+        vm.breakpoints = new Breakpoints(vm);
+        vm.breakpoints.passing = passing;
+      }
+      vm.status = TamVM.running;
+      input.close();
+      return true;
+    } catch (FileNotFoundException s) {
+      vm.CT = TamVM.CB;
+      System.err.println ("Error opening snapshot: " + s);
+    } catch (IOException s) {
+      vm.CT = TamVM.CB;
+      System.err.println ("Error reading snapshot: " + s);
+    }
+    return false;
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * @(#)TamIO.java
+ *
+ * The character input and output of a TamVM, that is, of the get, put,
+ * puts, getint, putint, geteol, puteol, eol and eof primitives.
+ */
+
+package TAM;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Buffered input and output for the I/O primitives of a TamVM, over NIO
+ * channels. Characters are moved through large byte buffers, and integers
+ * are formatted and parsed directly in them, so that a program that writes
+ * a character at a time does not make a system call for each one.
+ *
+ * Output is held until the buffer fills, the program needs more input than
+ * has been read (so that a prompt appears before the program waits), or
+ * flush is called. TamVM flushes when the program stops, whether it halts
+ * or fails.
+ *
+ * To run a program against other media, give its TamVM a TamIO on other
+ * channels, or a subclass that overrides read and write.
+ */
+
+public class TamIO {
+
+  static final int bufferSize = 1 << 16;
+
+  static final byte[] lineSeparator = System.lineSeparator().getBytes();
+
+  final ReadableByteChannel input;
+
+  final WritableByteChannel output;
+
+  final ByteBuffer inBuffer = ByteBuffer.allocate(bufferSize);
+
+  final ByteBuffer outBuffer = ByteBuffer.allocate(bufferSize);
+
+  // The decimal digits of the integer being written, last digit first.
+  final byte[] digits = new byte[20];
+
+  final Charset charset = Charset.defaultCharset();
+
+  // The character most recently read, or -1 at the end of the input.
+  int currentChar;
+
+  public TamIO (InputStream in, OutputStream out) {
+    this(Channels.newChannel(in), Channels.newChannel(out));
+  }
+
+  public TamIO (ReadableByteChannel input, WritableByteChannel output) {
+    this.input = input;
+    this.output = output;
+    inBuffer.flip(); // nothing read yet
+  }
+
+  /**
+   * Returns the next byte of input, or -1 at the end of the input.
+   */
+  protected int read () throws IOException {
+    if (!inBuffer.hasRemaining()) {
+      flush();
+      inBuffer.clear();
+      int count;
+      do
+        count = input.read(inBuffer);
+      while (count == 0);
+      inBuffer.flip();
+      if (count < 0)
+        return -1;
+    }
+    return inBuffer.get() & 0xFF;
+  }
+
+  /**
+   * Appends the given bytes to the output.
+   */
+  protected void write (byte[] bytes, int offset, int length) throws IOException {
+    while (length > 0) {
+      if (!outBuffer.hasRemaining())
+        flush();
+      int count = Math.min(length, outBuffer.remaining());
+      outBuffer.put(bytes, offset, count);
+      offset = offset + count;
+      length = length - count;
+    }
+  }
+
+  /**
+   * Writes out all the output held in the buffer.
+   */
+  public void flush () throws IOException {
+    outBuffer.flip();
+    while (outBuffer.hasRemaining())
+      output.write(outBuffer);
+    outBuffer.clear();
+  }
+
+  /**
+   * Reads the next character (get).
+   */
+  int get () throws IOException {
+    currentChar = read();
+    return currentChar;
+  }
+
+  /**
+   * Skips the rest of the current line of input (geteol).
+   */
+  void getEol () throws IOException {
+    do
+      currentChar = read();
+    while (currentChar != '\n' && currentChar != -1);
+  }
+
+  /**
+   * Reads an optionally signed decimal integer, after any white space
+   * (getint). The character after it becomes the current character.
+   */
+  int getInt () throws IOException {
+    int temp = 0;
+    int sign = 1;
+
+    do
+      currentChar = read();
+    while (Character.isWhitespace((char) currentChar));
+
+    if ((currentChar == '-') || (currentChar == '+'))
+      do {
+        sign = (currentChar == '-') ? -1 : 1;
+        currentChar = read();
+      } while ((currentChar == '-') || (currentChar == '+'));
+
+    if (Character.isDigit((char) currentChar))
+      do {
+        temp = temp * 10 + (currentChar - '0');
+        currentChar = read();
+      } while (Character.isDigit((char) currentChar));
+
+    return sign * temp;
+  }
+
+  /**
+   * Tests whether the current character ends a line (eol).
+   */
+  boolean atEol () {
+    return currentChar == '\n';
+  }
+
+  /**
+   * Tests whether the input is exhausted (eof).
+   */
+  boolean atEof () {
+    return currentChar == -1;
+  }
+
+  /**
+   * Writes a character (put).
+   */
+  void put (char c) throws IOException {
+    if (c < 0x80) {
+      if (!outBuffer.hasRemaining())
+        flush();
+      outBuffer.put((byte) c);
+    } else {
+      byte[] bytes = String.valueOf(c).getBytes(charset);
+      write(bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * Writes the count characters held in data from from onwards (puts).
+   */
+  void puts (int[] data, int from, int count) throws IOException {
+    for (int i = from; i < from + count; i++)
+      put((char) data[i]);
+  }
+
+  /**
+   * Writes an integer in decimal (putint).
+   */
+  void putInt (long n) throws IOException {
+    int length = 0;
+    long rest = Math.abs(n);
+    do {
+      digits[length++] = (byte) ('0' + rest % 10);
+      rest = rest / 10;
+    } while (rest > 0);
+    if (outBuffer.remaining() < length + 1)
+      flush();
+    if (n < 0)
+      outBuffer.put((byte) '-');
+    while (length > 0)
+      outBuffer.put(digits[--length]);
+  }
+
+  /**
+   * Ends the current line of output (puteol).
+   */
+  void putEol () throws IOException {
+    write(lineSeparator, 0, lineSeparator.length);
+  }
+}
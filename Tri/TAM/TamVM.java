@@ -0,0 +1,2655 @@
+/*
+ * @(#)TamVM.java                        2.1 2003/10/07
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package TAM;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A TAM virtual machine. Each instance has its own code store, data store,
+ * registers and input and output streams, and instances share no mutable
+ * state, so several programs can run at once on separate threads. For
+ * example:
+ * <pre>
+ *   TamVM vm = new TamVM();
+ *   vm.run("obj.tam");
+ * </pre>
+ *
+ * Interpreter.main is a command line front end for a single machine.
+ */
+public class TamVM {
+
+
+	String objectName;
+	String fileName;
+
+	// The source line of each instruction, the name, entry and last
+	// address of each routine, and the source file of each stretch of the
+	// code of a linked program, by its first address, from the line,
+	// symbol and source sections of the object file (see lineMap,
+	// functionMap and fileAt).
+	ArrayList<Integer> lineMap;
+	ArrayList<String[]> functionMap;
+	TreeMap<Integer, String> sources;
+
+	// The sections of a memory-mapped object file that follow the code,
+	// not yet decoded, and the header that gives their layout.
+	ByteBuffer sections;
+	ObjectFileHeader sectionsHeader;
+	
+
+	// CODE STORE
+
+	// The loaded program, one packed word per instruction (see
+	// Instruction.pack), indexed by code address. The op field of each word
+	// holds a handler number rather than an operation code (see predecode).
+	long[] code;
+
+	// Instructions that have no specialized handler, referred to by the d
+	// field of a GENERIC word.
+	ArrayList<Instruction> generic;
+
+	// The loaded program as read from the object file, before pre-decoding
+	// (see Translator).
+	Instruction[] instructions;
+
+	// handler numbers
+	final static int
+	LOADabs = 0, LOADst = 1, LOADht = 2, LOADlb = 3, LOADlk = 4,
+	LOADAabs = 5, LOADAst = 6, LOADAht = 7, LOADAlb = 8, LOADAlk = 9,
+	LOADIh = 10, LOADLh = 11,
+	STOREabs = 12, STOREst = 13, STOREht = 14, STORElb = 15, STORElk = 16,
+	STOREIh = 17, CALLlk = 18, CALLabs = 19, CALLIh = 20, RETURNh = 21,
+	PUSHh = 22, POPh = 23, JUMPabs = 24, JUMPIh = 25, JUMPIFabs = 26,
+	HALTh = 27, GENERIC = 28,
+	// superinstructions (see fuse)
+	ADDL = 29, SUBL = 30, MULTL = 31, LTL = 32, LEL = 33, GEL = 34, GTL = 35,
+	CHECKL = 36, LITERALS = 37, CMPJUMP = 38,
+	// a breakpoint (see Breakpoints)
+	TRAPh = 39,
+	primBase = 64; // primBase + d calls the primitive routine at PB + d
+
+	// Operands of the superinstructions that need more than one word,
+	// referred to by their d field.
+	int[] operands;
+	int operandCount;
+
+	// Whether loadObjectProgram fuses common sequences into superinstructions.
+	boolean fusing = true;
+
+	// Whether interpretProgram keeps the top of the stack out of data
+	// (see interpretCached); set by the -tos option.
+	boolean caching = false;
+
+	// Whether routines that become hot are translated to JVM code as the
+	// program runs (see Translator.compileRoutine); set by the -tier option.
+	boolean tiering = false;
+
+	// How many calls of a routine and jumps back within it make it hot.
+	int threshold = 1000;
+
+	// Calls of each routine and jumps back within it, and the translation
+	// of the routine once it has one, indexed by its entry address.
+	int[] invocations, backEdges;
+	MethodHandle[] compiled;
+	Translator translator;
+	boolean[] untranslatable;
+
+	// The entry address of the routine holding each code address, CB for
+	// the main program.
+	int[] routineOf;
+
+
+	// DATA STORE
+
+	int[] data = new int[1024];
+
+	// The constant pool of the object program, which each run copies to
+	// the bottom of the data store, from SB; the program's globals start
+	// above it.
+	int[] constants = new int[0];
+
+	// The size of the data store in words, set by the -data option; 0 for
+	// the size the object file asks for, or 1024 if it does not say.
+	int dataSize = 0;
+
+	// How large the data store may grow while the heap is empty, set by the
+	// -maxdata option; 0 for not at all.
+	int maxDataSize = 0;
+
+	// The allocator for new and dispose, and whether run reports on it
+	// afterwards; set by the -heapstats option.
+	Heap heap;
+	boolean heapStatistics = false;
+
+	// Whether new collects unreachable blocks when there is no room for a
+	// block; set by the -gc option.
+	boolean collecting = false;
+
+	// Whether loadObjectProgram verifies the program (see Verifier), so
+	// that it can run in interpretVerified; cleared by the -noverify
+	// option, and whether run says how that went; set by the -verify
+	// option. The most words the frame of each routine holds, by entry
+	// address, if it was verified, and otherwise why not.
+	boolean verifying = true;
+	boolean reportingVerification = false;
+	int[] maxStack;
+	String verifyError;
+
+	// The pointer map of each routine that has one, by entry address: the
+	// words of its frames, from LB, that may hold heap addresses (see
+	// pointerMaps).
+	HashMap<Integer, BitSet> pointerMaps;
+
+	// The instructions a run may execute, as charged (see charge), and the
+	// milliseconds it may take; set by the -fuel and -time options, 0 for
+	// no limit. Charges are made ahead, so a run with fuelLimit units runs
+	// at most that many instructions besides one pass through the main
+	// program.
+	long fuelLimit = 0;
+	long timeLimit = 0;
+
+	// The fuel left in the current run, the level at which charge next
+	// calls meter, and the System.nanoTime at which the run's time is up,
+	// if it has a time limit. Fuel held back for later checkpoints is kept
+	// in reserve.
+	long fuel, checkpoint, deadline, reserve;
+
+	// The fuel that a jump back to each code address charges: the
+	// instructions in the longest loop that it closes, or 1. And the fuel
+	// that a call of the routine at each code address charges: the
+	// instructions of the routine that can run before it jumps back, or 1.
+	int[] loopCost;
+	int[] callCost;
+
+	// How much fuel may be spent between looks at the clock.
+	final static long clockInterval = 1 << 16;
+
+	// The file that run writes the state of the machine to (see Snapshot)
+	// if the program runs out of fuel or time, and the fuel to spend
+	// between snapshots as it goes; set by the -snapshot and -checkpoint
+	// options.
+	String snapshotName;
+	long checkpointInterval = 0;
+
+	// The file that run writes an exact profile of the run to (see
+	// Profiler), set by the -profile option, and the profiler counting it.
+	String profileName;
+	Profiler profiler;
+
+	// The file that run writes samples of the call stack to (see Sampler)
+	// and the fuel to spend between samples, set by the -sample and
+	// -interval options; the sampler taking them, and the fuel level at
+	// which it takes the next.
+	String sampleName;
+	long sampleInterval = 10000;
+	Sampler sampler;
+	long nextSample;
+
+	// The file that run merges the source coverage of the run into (see
+	// Coverage), set by the -coverage option; the first address of each
+	// basic block not yet entered, and of each block entered.
+	String coverageName;
+	boolean[] blockEntries;
+	BitSet covered;
+
+	// The file that the run's input is recorded in, or replayed from (see
+	// Trace), set by the -record and -replay options; the trace, and the
+	// fuel level at which it next hashes the state of the machine.
+	String traceName;
+	boolean replaying = false;
+	Trace trace;
+	long nextHash;
+
+	// The source lines that the run stops at, set by the -break option as
+	// a line of fileName or as file:line, and the breakpoints patched into
+	// the code store for them.
+	List<String> breakLines = new ArrayList<String>();
+	Breakpoints breakpoints;
+
+
+	// DATA STORE REGISTERS AND OTHER REGISTERS
+
+	final static int
+	CB = 0,
+	SB = 0;
+
+	int
+	HB = 1024;  // = upper bound of data array + 1
+
+	// The primitive routines follow the code segment, so loadObjectProgram
+	// moves them up from Machine.PB when the program is longer.
+	int
+	PB = Machine.PB,
+	PT = Machine.PT;
+
+	int
+	CT, CP, ST, HT, LB, status;
+
+	// status values
+	final static int
+	running = 0, halted = 1, failedDataStoreFull = 2, failedInvalidCodeAddress = 3,
+	failedInvalidInstruction = 4, failedOverflow = 5, failedZeroDivide = 6,
+	failedIOError = 7, failedArrayCheck = 8, failedOutOfFuel = 9,
+	failedTimeLimit = 10, suspended = 11, failedReplay = 12, stopped = 13;
+
+	long
+	accumulator;
+
+	// The input and output of the I/O primitives, and the stream that the
+	// status and the dump are written to.
+	TamIO io = new TamIO(System.in, System.out);
+	PrintStream out = System.out;
+
+	// DISPLAY
+
+	// The frame bases along the static chain of the current frame are
+	// cached in a display, so that L1, L2, ... cost one array load instead
+	// of a walk along the static links. The display is a stack of segments,
+	// one per active frame, each laid out as
+	//   previous DP, depth, LB, L1, ..., L<depth>
+	// with DP indexing the LB entry of the current frame's segment. Only
+	// CALL, CALLI and RETURN change it.
+	int[] display;
+	int DP;
+
+	// The DP of each active frame's segment, indexed by frame base, used to
+	// find the chain behind the static link of a closure.
+	int[] segmentOf;
+
+	int content (int r) {
+		// Returns the current content of register r,
+		// even if r is one of the pseudo-registers L1, L2, ...
+
+		switch (r) {
+		case Machine.CBr:
+			return CB;
+		case Machine.CTr:
+			return CT;
+		case Machine.PBr:
+			return PB;
+		case Machine.PTr:
+			return PT;
+		case Machine.SBr:
+			return SB;
+		case Machine.STr:
+			return ST;
+		case Machine.HBr:
+			return HB;
+		case Machine.HTr:
+			return HT;
+		case Machine.LBr:
+			return LB;
+		case Machine.L1r:
+		case Machine.L2r:
+		case Machine.L3r:
+		case Machine.L4r:
+		case Machine.L5r:
+		case Machine.L6r:
+			return staticLink(r - Machine.LBr);
+		case Machine.CPr:
+			return CP;
+		default:
+			if (r >= Machine.L7r && isRegister(r))
+				return staticLink(r - Machine.L7r + 7);
+			return 0;
+		}
+	}
+
+	static boolean isRegister (int r) {
+		// Tests whether r is a valid register number.
+		return (0 <= r && r <= Machine.CPr)
+			|| (Machine.L7r <= r && r <= Machine.L7r + Machine.maxRoutineLevel - 7);
+	}
+
+
+	// PROGRAM STATUS
+
+	void dump() {
+		// Writes a summary of the machine state.
+		int
+		addr, staticLink, dynamicLink,
+		localRegNum;
+		out.println();
+		// CP is past the instruction that failed, but where the run goes on
+		// if it stopped between instructions: at a breakpoint, or at the
+		// call or jump back that its fuel or time ran out at
+		boolean between = (status == stopped) || (status == suspended)
+				|| (status == failedOutOfFuel) || (status == failedTimeLimit);
+		int current = between ? CP : CP - 1;
+		out.println("Error in file '" + fileAt(current) + "' at line " + lineMap().get(current)  + " (Instruction " + CP + ")");
+		out.println("In functions: ");
+		int address = current;
+		int local = LB;
+		while(local > 0){
+			HashMap<Integer, String> hitMap = new HashMap<Integer, String>();
+			for(String[] stringArray : functionMap()){
+				int start = Integer.parseInt(stringArray[1]);
+				int end = Integer.parseInt(stringArray[2]);
+				if(start <= address && end >= address){
+					hitMap.put(end - start + 1, stringArray[0]);
+				}
+			}
+			List<Integer> keys = new ArrayList<Integer>(hitMap.keySet());
+			Collections.sort(keys);
+			// a routine with no symbol is shown by the address it is at
+			out.println(keys.isEmpty() ? "instruction " + address : hitMap.get(keys.get(0)));
+			// the call that the frame returns past
+			address = data[local + 2] - 1;
+			local = data[local + 1];
+		}
+		out.println("main");
+		out.println();
+		out.println ("State of data store and registers:");
+		out.println ("");
+		if (HT == HB)
+			out.println("            |--------|          (heap is empty)");
+		else {
+			out.println("       HB-->");
+			out.println("            |--------|");
+			for (addr = HB - 1; addr >= HT; addr--) {
+				out.print(addr + ":");
+				if (addr == HT)
+					out.print(" HT-->");
+				else
+					out.print("      ");
+				out.println("|" + data[addr] + "|");
+			}
+			out.println("            |--------|");
+		}
+		out.println("            |////////|");
+		out.println("            |////////|");
+		if (ST == SB)
+			out.println("            |--------|          (stack is empty)");
+		else {
+			dynamicLink = LB;
+			staticLink = LB;
+			localRegNum = Machine.LBr;
+			out.println("      ST--> |////////|");
+			out.println("            |--------|");
+			for (addr = ST - 1; addr >= SB; addr--) {
+				if (addr == SB + constants.length - 1)
+					out.println("            |--------|          (constant pool)");
+				out.print(addr + ":");
+				if (addr == SB)
+					out.print(" SB-->");
+				else if (addr == staticLink) {
+					switch (localRegNum) {
+					case Machine.LBr:
+						out.print(" LB-->");
+						break;
+					case Machine.L1r:
+						out.print(" L1-->");
+						break;
+					case Machine.L2r:
+						out.print(" L2-->");
+						break;
+					case Machine.L3r:
+						out.print(" L3-->");
+						break;
+					case Machine.L4r:
+						out.print(" L4-->");
+						break;
+					case Machine.L5r:
+						out.print(" L5-->");
+						break;
+					case Machine.L6r:
+						out.print(" L6-->");
+						break;
+					default:
+						out.print(" L" + (localRegNum - Machine.LBr) + "->");
+						break;
+					}
+					staticLink = data[addr];
+					localRegNum = localRegNum + 1;
+				} else
+					out.print("      ");
+				if ((addr == dynamicLink) && (dynamicLink != SB))
+					out.print("|SL=" + data[addr] + "|");
+				else if ((addr == dynamicLink + 1) && (dynamicLink != SB))
+					out.print("|DL=" + data[addr] + "|");
+				else if ((addr == dynamicLink + 2) && (dynamicLink != SB))
+					out.print("|RA=" + data[addr] + "|");
+				else
+					out.print("|" + data[addr] + "|");
+				out.println ("");
+				if (addr == dynamicLink) {
+					out.println("            |--------|");
+					dynamicLink = data[addr + 1];
+				}
+			}
+		}
+		out.println ("");
+	}
+
+	void showStatus () {
+		// Writes an indication of whether and why the program has terminated.
+		out.println ("");
+		switch (status) {
+		case running:
+			out.println("Program is running.");
+			break;
+		case halted:
+			out.println("Program has halted normally.");
+			break;
+		case failedDataStoreFull:
+			out.println("Program has failed due to exhaustion of Data Store.");
+			break;
+		case failedInvalidCodeAddress:
+			out.println("Program has failed due to an invalid code address.");
+			break;
+		case failedInvalidInstruction:
+			out.println("Program has failed due to an invalid instruction.");
+			break;
+		case failedOverflow:
+			out.println("Program has failed due to overflow.");
+			break;
+		case failedZeroDivide:
+			out.println("Program has failed due to division by zero.");
+			break;
+		case failedIOError:
+			out.println("Program has failed due to an IO error.");
+			break;
+		case failedArrayCheck:
+			out.println("Program has failed due to array index out of bounds error.");
+			break;
+		case failedOutOfFuel:
+			out.println("Program has failed due to exhaustion of its instruction budget.");
+			break;
+		case failedTimeLimit:
+			out.println("Program has failed due to exceeding its time limit.");
+			break;
+		case suspended:
+			out.println("Program is suspended.");
+			break;
+		case failedReplay:
+			out.println("Program has failed due to diverging from its trace.");
+			break;
+		case stopped:
+			out.println("Program has stopped at a breakpoint at line " + lineMap().get(CP)
+					+ " (Instruction " + CP + ").");
+		}
+		if (status != halted)
+			dump();
+	}
+
+
+	// INTERPRETATION
+
+	boolean checkSpace (int spaceNeeded) {
+		// Signals failure if there is not enough space to expand the stack or
+		// heap by spaceNeeded, even after growing the data store. Tests
+		// whether there is; if not, the caller must not write the words.
+
+		if ((HT - ST < spaceNeeded) && !expand(spaceNeeded)) {
+			status = failedDataStoreFull;
+			return false;
+		}
+		return true;
+	}
+
+	boolean expand (int spaceNeeded) {
+		// Grows the data store up to maxDataSize so that the stack or heap
+		// can expand by spaceNeeded. The program holds heap addresses, so the
+		// top of the store can only move while the heap is empty. Tests
+		// whether there is room now.
+
+		if ((HT != HB) || (maxDataSize <= data.length))
+			return false;
+		long size = data.length;
+		while ((size - ST < spaceNeeded) && (size < maxDataSize))
+			size = 2 * size;
+		size = Math.min(size, maxDataSize);
+		if (size - ST < spaceNeeded)
+			return false;
+		data = Arrays.copyOf(data, (int) size);
+		segmentOf = Arrays.copyOf(segmentOf, (int) size);
+		HB = (int) size;
+		HT = HB;
+		return true;
+	}
+
+	static boolean isTrue (int datum) {
+		// Tests whether the given datum represents true.
+		return (datum == Machine.trueRep);
+	}
+
+	boolean equal (int size, int addr1, int addr2) {
+		// Tests whether two multi-word objects are equal, given their common
+		// size and their base addresses.
+
+		boolean eq;
+		int index;
+
+		eq = true;
+		index = 0;
+		while (eq && (index < size))
+			if (data[addr1 + index] == data[addr2 + index])
+				index = index + 1;
+			else
+				eq = false;
+		return eq;
+	}
+
+	int overflowChecked (long datum) {
+		// Signals failure if the datum is too large to fit into a single word,
+		// otherwise returns the datum as a single word.
+
+		if ((-Machine.maxintRep <= datum) && (datum <= Machine.maxintRep))
+			return (int) datum;
+		else {
+			status = failedOverflow;
+			return 0;
+		}
+	}
+
+	static int toInt(boolean b) {
+		return b ? Machine.trueRep : Machine.falseRep;
+	}
+
+	void flushOutput () {
+		// Writes out the output that the program has put so far.
+
+		try {
+			io.flush();
+		} catch (java.io.IOException s) {
+			status = failedIOError;
+		}
+	}
+
+	void callPrimitive (int primitiveDisplacement) {
+		// Invokes the given primitive routine.
+
+		int addr, size;
+		char ch;
+
+		switch (primitiveDisplacement) {
+		case Machine.idDisplacement:
+			break; // nothing to be done
+		case Machine.notDisplacement:
+			data[ST - 1] = toInt(!isTrue(data[ST - 1]));
+			break;
+		case Machine.andDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(isTrue(data[ST - 1]) & isTrue(data[ST]));
+			break;
+		case Machine.orDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(isTrue(data[ST - 1]) | isTrue(data[ST]));
+			break;
+		case Machine.succDisplacement:
+			data[ST - 1] = overflowChecked(data[ST - 1] + 1);
+			break;
+		case Machine.predDisplacement:
+			data[ST - 1] = overflowChecked(data[ST - 1] - 1);
+			break;
+		case Machine.negDisplacement:
+			data[ST - 1] = -data[ST - 1];
+			break;
+		case Machine.addDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator + data[ST]);
+			break;
+		case Machine.subDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator - data[ST]);
+			break;
+		case Machine.multDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator * data[ST]);
+			break;
+		case Machine.divDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			if (data[ST] != 0)
+				data[ST - 1] = (int) (accumulator / data[ST]);
+			else
+				status = failedZeroDivide;
+			break;
+		case Machine.modDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			if (data[ST] != 0)
+				data[ST - 1] = (int) (accumulator % data[ST]);
+			else
+				status = failedZeroDivide;
+			break;
+		case Machine.ltDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] < data[ST]);
+			break;
+		case Machine.leDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] <= data[ST]);
+			break;
+		case Machine.geDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] >= data[ST]);
+			break;
+		case Machine.gtDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] > data[ST]);
+			break;
+		case Machine.eqDisplacement:
+			size = data[ST - 1]; // size of each comparand
+			ST = ST - 2 * size;
+			data[ST - 1] = toInt(equal(size, ST - 1, ST - 1 + size));
+			break;
+		case Machine.neDisplacement:
+			size = data[ST - 1]; // size of each comparand
+			ST = ST - 2 * size;
+			data[ST - 1] = toInt(! equal(size, ST - 1, ST - 1 + size));
+			break;
+		case Machine.rangeDisplacement:
+			if(ST - 2 >= 0 && ST - 2 <= ST - 1){
+				ST = ST - 1;
+			}
+			else
+				status = failedOverflow;
+			break;
+					
+		case Machine.lexicoIncDisplacement:
+			int size1 = data[ST - 1]; // size of each comparand
+			String s1 = new String();
+			for(int i = size1 - 1; i >= 0; i --){
+				s1 = s1 + (char)data[ST - 3 - i];
+			}
+			int size2 = data[ST - 2];
+			String s2 = new String();
+			for(int i = size2 - 1; i >= 0; i --){
+				s2 = s2 + (char)data[ST - 3 - size1 - i];
+			}
+			ST = ST - (size1 + size2 + 1);
+			if(s1.compareTo(s2) > 0) data[ST - 1] = 1;
+			else data[ST - 1] = 0;
+			break;
+		case Machine.lexicoDecDisplacement:
+			int size3 = data[ST - 1]; // size of each comparand
+			String s3 = new String();
+			for(int i = size3 - 1; i >= 0; i --){
+				s3 = s3 + (char)data[ST - 3 - i];
+			}
+			int size4 = data[ST - 2];
+			String s4 = new String();
+			for(int i = size4 - 1; i >= 0; i --){
+				s4 = s4 + (char)data[ST - 3 - size3 - i];
+			}
+			ST = ST - (size3 + size4 + 1);
+			if(s3.compareTo(s4) < 0) data[ST - 1] = 1;
+			else data[ST - 1] = 0;
+			break;
+		case Machine.eolDisplacement:
+			if (!checkSpace(1))
+				break;
+			data[ST] = toInt(io.atEol());
+			ST = ST + 1;
+			break;
+		case Machine.eofDisplacement:
+			if (!checkSpace(1))
+				break;
+			data[ST] = toInt(io.atEof());
+			ST = ST + 1;
+			break;
+		case Machine.getDisplacement:
+			ST = ST - 1;
+			addr = data[ST];
+			try {
+				data[addr] = io.get();
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			break;
+		case Machine.putDisplacement:
+			ST = ST - 1;
+			ch = (char) data[ST];
+			try {
+				io.put(ch);
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			break;
+		case Machine.putsDisplacement:
+			size = data[--ST];
+			try {
+				io.puts(data, ST - size, size);
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			ST = ST - size;
+			break;
+		case Machine.geteolDisplacement:
+			try {
+				io.getEol();
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			break;
+		case Machine.puteolDisplacement:
+			try {
+				io.putEol();
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			break;
+		case Machine.getintDisplacement:
+			ST = ST - 1;
+			addr = data[ST];
+			try {
+				accumulator = io.getInt();
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			data[addr] = (int) accumulator;
+			break;
+		case Machine.putintDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST];
+			try {
+				io.putInt(accumulator);
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			break;
+		case Machine.newDisplacement:
+			size = data[ST - 1];
+			addr = heap.allocate(size);
+			data[ST - 1] = addr;
+			break;
+		case Machine.disposeDisplacement:
+			ST = ST - 2;
+			heap.dispose(data[ST + 1], data[ST]);
+			break;
+		case Machine.haltDisplacement:
+			status = failedArrayCheck;
+			break;
+		case Machine.arrayCheckDisplacement:
+			if(data[ST - 2] >= data[ST - 1] || data[ST - 2] < 0){
+				status = failedArrayCheck;
+			}
+			ST = ST - 1;
+			break;
+		}
+	}
+
+	void execute (Instruction instr) {
+		// Executes a single instruction in its original, undecoded form.
+		// Used for the rare instructions that have no specialized handler.
+
+		int addr, index;
+		int r = instr.r, n = instr.n, d = instr.d;
+
+		switch (instr.op) {
+		case Machine.LOADop:
+			addr = d + content(r);
+			CP = CP + 1;
+			if (!checkSpace(n))
+				break;
+			for (index = 0; index < n; index++)
+				data[ST + index] = data[addr + index];
+			ST = ST + n;
+			break;
+		case Machine.LOADAop:
+			addr = d + content(r);
+			CP = CP + 1;
+			if (!checkSpace(1))
+				break;
+			data[ST] = addr;
+			ST = ST + 1;
+			break;
+		case Machine.LOADIop:
+			ST = ST - 1;
+			addr = data[ST];
+			CP = CP + 1;
+			if (!checkSpace(n))
+				break;
+			for (index = 0; index < n; index++)
+				data[ST + index] = data[addr + index];
+			ST = ST + n;
+			break;
+		case Machine.LOADLop:
+			CP = CP + 1;
+			if (!checkSpace(1))
+				break;
+			data[ST] = d;
+			ST = ST + 1;
+			break;
+		case Machine.STOREop:
+			addr = d + content(r);
+			ST = ST - n;
+			for (index = 0; index < n; index++)
+				data[addr + index] = data[ST + index];
+			CP = CP + 1;
+			break;
+		case Machine.STOREIop:
+			ST = ST - 1;
+			addr = data[ST];
+			ST = ST - n;
+			for (index = 0; index < n; index++)
+				data[addr + index] = data[ST + index];
+			CP = CP + 1;
+			break;
+		case Machine.CALLop:
+			addr = d + content(r);
+			if (addr >= PB) {
+				callPrimitive(addr - PB);
+				CP = CP + 1;
+			} else {
+				if (!checkSpace(3)) {
+					CP = CP + 1;
+					break;
+				}
+				if (isRegister(n))
+					data[ST] = content(n); // static link
+					else
+						status = failedInvalidInstruction;
+				data[ST + 1] = LB; // dynamic link
+				data[ST + 2] = CP + 1; // return address
+				enterFrame(data[ST]);
+				LB = ST;
+				ST = ST + 3;
+				CP = addr;
+				if (charge(entryCost(addr)) && tiering)
+					called();
+			}
+			break;
+		case Machine.CALLIop:
+			ST = ST - 2;
+			addr = data[ST + 1];
+			if (addr >= PB) {
+				callPrimitive(addr - PB);
+				CP = CP + 1;
+			} else {
+				if (!checkSpace(3)) {
+					ST = ST + 2;
+					CP = CP + 1;
+					break;
+				}
+				// data[ST] = static link already
+				data[ST + 1] = LB; // dynamic link
+				data[ST + 2] = CP + 1; // return address
+				enterFrame(data[ST]);
+				LB = ST;
+				ST = ST + 3;
+				CP = addr;
+				if (charge(entryCost(addr)) && tiering)
+					called();
+			}
+			break;
+		case Machine.RETURNop:
+			addr = LB - d;
+			CP = data[LB + 2];
+			LB = data[LB + 1];
+			DP = display[DP - 2];
+			ST = ST - n;
+			for (index = 0; index < n; index++)
+				data[addr + index] = data[ST + index];
+			ST = addr + n;
+			break;
+		case Machine.PUSHop:
+			CP = CP + 1;
+			if (checkSpace(d))
+				ST = ST + d;
+			break;
+		case Machine.POPop:
+			addr = ST - n - d;
+			ST = ST - n;
+			for (index = 0; index < n; index++)
+				data[addr + index] = data[ST + index];
+			ST = addr + n;
+			CP = CP + 1;
+			break;
+		case Machine.JUMPop:
+			jump(d + content(r));
+			break;
+		case Machine.JUMPIop:
+			ST = ST - 1;
+			CP = data[ST];
+			break;
+		case Machine.JUMPIFop:
+			ST = ST - 1;
+			if (data[ST] == n)
+				jump(d + content(r));
+			else
+				CP = CP + 1;
+			break;
+		case Machine.HALTop:
+			status = halted;
+			break;
+		}
+	}
+
+	int staticLink (int k) {
+		// Returns the frame base k levels out along the static chain.
+
+		int depth = display[DP - 1];
+		if (k <= depth)
+			return display[DP + k];
+		// beyond the cached chain, carry on along the static links
+		int frame = display[DP + depth];
+		for (k = k - depth; k > 0; k--)
+			frame = data[frame];
+		return frame;
+	}
+
+	void pushSegment (int from, int length) {
+		// Starts the display segment of a new frame at ST, whose static
+		// chain is the length entries at display[from].
+
+		int next = DP + display[DP - 1] + 3;
+		if (next + length + 1 > display.length)
+			display = Arrays.copyOf(display, 2 * display.length + length);
+		System.arraycopy(display, from, display, next + 1, length);
+		display[next - 2] = DP;
+		display[next - 1] = length;
+		display[next] = ST;
+		segmentOf[ST] = next;
+		DP = next;
+	}
+
+	void enterChain (int k) {
+		// Starts the display segment of a new frame at ST whose static link
+		// is Lk of the current frame.
+
+		int depth = display[DP - 1];
+		if (k <= depth)
+			pushSegment(DP + k, depth - k + 1);
+		else
+			enterFrame(staticLink(k));
+	}
+
+	void enterFrame (int link) {
+		// Starts the display segment of a new frame at ST with the given
+		// static link, sharing the chain of the frame it links to.
+
+		int segment = (0 <= link && link < segmentOf.length) ? segmentOf[link] : 0;
+		if (segment > 0 && segment <= DP && display[segment] == link)
+			pushSegment(segment, display[segment - 1] + 1);
+		else {
+			// not an active frame, so cache the link alone
+			int spare = DP + display[DP - 1] + 1;
+			if (spare >= display.length)
+				display = Arrays.copyOf(display, 2 * display.length);
+			display[spare] = link;
+			pushSegment(spare, 1);
+		}
+	}
+
+	void jump (int target) {
+		// Transfers control to target, charging for the loop and counting
+		// the jump if it goes back.
+
+		if ((target <= CP) && (target >= CB)) {
+			CP = target;
+			if (charge(loopCost[target]) && tiering)
+				jumpedBack();
+		} else
+			CP = target;
+	}
+
+	boolean charge (long units) {
+		// Spends units of the run's fuel: the instructions in a loop at each
+		// jump back, and those of a routine at each call of it, so that no
+		// instruction runs that has not been paid for. Tests whether the run
+		// may go on.
+
+		fuel = fuel - units;
+		return (fuel >= checkpoint) || meter();
+	}
+
+	boolean meter () {
+		// Fails the run if it has no fuel left or its time is up, and
+		// otherwise sets the next checkpoint. Tests whether the run may go
+		// on.
+
+		if (status != running)
+			return false;
+		if (fuel < 0)
+			status = (reserve > 0) ? suspended : failedOutOfFuel;
+		else if ((timeLimit > 0) && (System.nanoTime() - deadline >= 0))
+			status = failedTimeLimit;
+		else {
+			checkpoint = (timeLimit > 0) ? fuel - clockInterval : 0;
+			if (sampler != null) {
+				if (fuel < nextSample) {
+					sampler.sample();
+					nextSample = fuel - sampleInterval;
+				}
+				checkpoint = Math.max(checkpoint, nextSample);
+			}
+			if (trace != null) {
+				if (fuel < nextHash) {
+					trace.check();
+					nextHash = fuel - trace.hashInterval;
+				}
+				checkpoint = Math.max(checkpoint, nextHash);
+			}
+			checkpoint = Math.max(checkpoint, 0);
+		}
+		return status == running;
+	}
+
+	int[] loopCosts () {
+		// Returns the fuel that a jump back to each code address charges.
+
+		int[] costs = new int[CT + 1];
+		Arrays.fill(costs, 1);
+		for (int addr = CB; addr < CT; addr++) {
+			Instruction instr = instructions[addr];
+			if ((instr.op == Machine.JUMPop || instr.op == Machine.JUMPIFop)
+					&& (instr.r == Machine.CBr) && (instr.d >= CB) && (instr.d <= addr))
+				costs[instr.d] = Math.max(costs[instr.d], addr - instr.d + 1);
+		}
+		return costs;
+	}
+
+	int[] callCosts () {
+		// Returns the fuel that a call of each code address charges. A
+		// routine's instructions that control can reach from its entry by
+		// falling through and jumping forward each run at most once a call;
+		// those run again are in loops, and charged at the jump back.
+
+		int[] costs = new int[CT + 1];
+		Arrays.fill(costs, 1);
+		int[] seen = new int[CT + 1];
+		ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+		for (int addr = CB; addr < CT; addr++) {
+			Instruction instr = instructions[addr];
+			int entry = instr.d;
+			if ((instr.op != Machine.CALLop && instr.op != Machine.LOADAop) || (instr.r != Machine.CBr)
+					|| (entry < CB) || (entry >= CT) || (seen[entry] == entry + 1))
+				continue;
+			int count = 0;
+			pending.push(entry);
+			seen[entry] = entry + 1;
+			while (!pending.isEmpty()) {
+				int at = pending.pop();
+				count++;
+				Instruction next = instructions[at];
+				int op = next.op;
+				if ((op != Machine.JUMPop) && (op != Machine.JUMPIop) && (op != Machine.RETURNop)
+						&& (op != Machine.HALTop) && (at + 1 < CT) && (seen[at + 1] != entry + 1)) {
+					seen[at + 1] = entry + 1;
+					pending.push(at + 1);
+				}
+				if (((op == Machine.JUMPop) || (op == Machine.JUMPIFop)) && (next.r == Machine.CBr)
+						&& (next.d > at) && (next.d < CT) && (seen[next.d] != entry + 1)) {
+					seen[next.d] = entry + 1;
+					pending.push(next.d);
+				}
+			}
+			costs[entry] = count;
+		}
+		return costs;
+	}
+
+	int entryCost (int addr) {
+		// Returns the fuel that a call of addr charges.
+		return ((addr >= CB) && (addr < CT)) ? callCost[addr] : 1;
+	}
+
+	void load (int addr, int n) {
+		// Pushes the n words starting at addr.
+		if (!checkSpace(n))
+			return;
+		for (int index = 0; index < n; index++)
+			data[ST + index] = data[addr + index];
+		ST = ST + n;
+	}
+
+	void loadAddress (int addr) {
+		// Pushes addr itself.
+		if (!checkSpace(1))
+			return;
+		data[ST] = addr;
+		ST = ST + 1;
+	}
+
+	void store (int addr, int n) {
+		// Pops n words into the n words starting at addr.
+		ST = ST - n;
+		for (int index = 0; index < n; index++)
+			data[addr + index] = data[ST + index];
+	}
+
+	int operand (int kind, int v, int st) {
+		// Returns the value pushed by a LOADL v (kind 0) or a LOAD (1) v[SB],
+		// (2) v[ST] or (3) v[LB], when the stack top is at st.
+
+		switch (kind) {
+		case 0:
+			return v;
+		case 1:
+			return data[v];
+		case 2:
+			return data[v + st];
+		default:
+			return data[v + LB];
+		}
+	}
+
+	boolean compare (int primitiveDisplacement, int a, int b) {
+		switch (primitiveDisplacement) {
+		case Machine.ltDisplacement:
+			return a < b;
+		case Machine.leDisplacement:
+			return a <= b;
+		case Machine.geDisplacement:
+			return a >= b;
+		default:
+			return a > b;
+		}
+	}
+
+	void interpretProgram() {
+		// Runs the program in code store.
+
+		initializeRegisters();
+		if (tiering)
+			prepareTiers();
+		continueProgram();
+	}
+
+	void continueProgram() {
+		// Runs the program from CP with the machine as it stands, until it
+		// stops or is suspended. Only a run that is in the main program
+		// can have had its stack space checked for interpretVerified.
+
+		try {
+			if (profiler != null)
+				interpretProfiled();
+			else if (covered != null)
+				interpretCovering();
+			else if (caching)
+				interpretCached();
+			else if ((maxStack != null) && !tiering && (LB == SB) && (HT - ST >= maxStack[CB]))
+				interpretVerified();
+			else
+				do {
+					step(code[CP]);
+					if ((CP < CB) || (CP >= CT))
+						status = failedInvalidCodeAddress;
+				} while (status == running);
+		} finally {
+			// the output must not be lost when the program stops, however
+			flushOutput();
+		}
+	}
+
+	void interpretProfiled() {
+		// Runs the program as the plain loop does, counting the words
+		// executed at each code address.
+
+		long[] counts = profiler.counts;
+
+		do {
+			counts[CP]++;
+			step(code[CP]);
+			if ((CP < CB) || (CP >= CT))
+				status = failedInvalidCodeAddress;
+		} while (status == running);
+	}
+
+	void interpretCovering() {
+		// Runs the program as the plain loop does, recording each basic
+		// block the first time it is entered.
+
+		boolean[] entries = blockEntries;
+
+		do {
+			if (entries[CP]) {
+				covered.set(CP);
+				entries[CP] = false;
+			}
+			step(code[CP]);
+			if ((CP < CB) || (CP >= CT))
+				status = failedInvalidCodeAddress;
+		} while (status == running);
+	}
+
+	void interpretFrame() {
+		// Runs the program from CP until the frame at LB returns. Used for
+		// code that has no translation (see Translator).
+
+		int segment = DP;
+
+		do {
+			step(code[CP]);
+			if ((CP < CB) || (CP >= CT))
+				status = failedInvalidCodeAddress;
+		} while ((status == running) && (DP >= segment));
+	}
+
+	void interpretVerified() {
+		// Runs a verified program (see Verifier) with the stack space that
+		// each routine needs checked once, when it is called, instead of at
+		// every push, and with CP checked only where it comes from the
+		// data store. A routine that may not have the space it needs runs
+		// with every check, in interpretFrame, until it returns.
+
+		long currentInstr;
+		int op, k, n, d, addr, index, segment;
+
+		do {
+			// Fetch instruction ...
+			currentInstr = code[CP];
+			// Decode instruction ...
+			op = (int) (currentInstr >>> 56);
+			k = (int) (currentInstr >>> 48) & 0xFF;
+			n = (int) (currentInstr >>> 32) & 0xFFFF;
+			d = (int) currentInstr;
+			// Execute instruction ...
+			switch (op) {
+			case LOADabs:
+			case LOADst:
+			case LOADht:
+			case LOADlb:
+			case LOADlk:
+				addr = (op == LOADabs) ? d : (op == LOADst) ? d + ST : (op == LOADht) ? d + HT
+						: (op == LOADlb) ? d + LB : d + staticLink(k);
+				for (index = 0; index < n; index++)
+					data[ST + index] = data[addr + index];
+				ST = ST + n;
+				CP = CP + 1;
+				break;
+			case LOADAabs:
+				data[ST++] = d;
+				CP = CP + 1;
+				break;
+			case LOADAlb:
+				data[ST++] = d + LB;
+				CP = CP + 1;
+				break;
+			case LOADIh:
+				addr = data[ST - 1];
+				ST = ST - 1;
+				for (index = 0; index < n; index++)
+					data[ST + index] = data[addr + index];
+				ST = ST + n;
+				CP = CP + 1;
+				break;
+			case LOADLh:
+				data[ST++] = d;
+				CP = CP + 1;
+				break;
+			case CALLlk:
+			case CALLabs:
+				if (HT - ST < maxStack[d]) {
+					// run the routine with every check
+					segment = DP;
+					step(currentInstr);
+					if ((status == running) && (DP > segment))
+						interpretFrame();
+					break;
+				}
+				data[ST] = (op == CALLlk) ? staticLink(k) : n; // static link
+				data[ST + 1] = LB; // dynamic link
+				data[ST + 2] = CP + 1; // return address
+				if (op == CALLlk)
+					enterChain(k);
+				else
+					enterFrame(n);
+				LB = ST;
+				ST = ST + 3;
+				CP = d;
+				charge(callCost[d]);
+				break;
+			case RETURNh:
+				addr = LB - d;
+				CP = data[LB + 2];
+				LB = data[LB + 1];
+				DP = display[DP - 2];
+				ST = ST - n;
+				for (index = 0; index < n; index++)
+					data[addr + index] = data[ST + index];
+				ST = addr + n;
+				if ((CP < CB) || (CP >= CT))
+					status = failedInvalidCodeAddress;
+				break;
+			case PUSHh:
+				ST = ST + d;
+				CP = CP + 1;
+				break;
+			case JUMPabs:
+				if (d <= CP)
+					charge(loopCost[d]);
+				CP = d;
+				break;
+			case JUMPIFabs:
+				ST = ST - 1;
+				if (data[ST] != n)
+					CP = CP + 1;
+				else {
+					if (d <= CP)
+						charge(loopCost[d]);
+					CP = d;
+				}
+				break;
+			case ADDL:
+				data[ST - 1] = overflowChecked((long) data[ST - 1] + d);
+				CP = CP + 2;
+				break;
+			case SUBL:
+				data[ST - 1] = overflowChecked((long) data[ST - 1] - d);
+				CP = CP + 2;
+				break;
+			case LITERALS:
+				// a run of operands[d] LOADLs
+				n = operands[d];
+				System.arraycopy(operands, d + 1, data, ST, n);
+				ST = ST + n;
+				CP = CP + n;
+				break;
+			case CMPJUMP:
+				// two single-word loads, a comparison and a JUMPIF
+				addr = operand(operands[d], operands[d + 1], ST);
+				index = operand(operands[d + 2], operands[d + 3], ST + 1);
+				if (toInt(compare(operands[d + 4], addr, index)) != n)
+					CP = CP + 4;
+				else {
+					if (operands[d + 5] <= CP)
+						charge(loopCost[operands[d + 5]]);
+					CP = operands[d + 5];
+				}
+				break;
+			default:
+				// the rest need no check for space, or have their own
+				segment = DP;
+				step(currentInstr);
+				if ((CP < CB) || (CP >= CT))
+					status = failedInvalidCodeAddress;
+				else if ((status == running) && (DP > segment))
+					interpretFrame();
+			}
+		} while (status == running);
+	}
+
+	void initializeRegisters() {
+		// Sets up the registers and the display for a run from CB.
+
+		ST = SB;
+		HT = HB;
+		LB = SB;
+		CP = CB;
+		status = running;
+		display = new int[64];
+		display[0] = -1;
+		display[1] = 0;
+		display[2] = SB;
+		DP = 2;
+		segmentOf = new int[data.length];
+		segmentOf[SB] = DP;
+		heap = new Heap(this);
+		if ((HT - ST < constants.length) && !expand(constants.length))
+			status = failedDataStoreFull;
+		else {
+			System.arraycopy(constants, 0, data, SB, constants.length);
+			ST = SB + constants.length;
+		}
+		startMeter();
+	}
+
+	void startMeter() {
+		// Gives the run its fuel, holding all but a checkpoint's worth in
+		// reserve if it is to write snapshots as it goes, and starts its
+		// clock.
+
+		fuel = (fuelLimit > 0) ? fuelLimit : Long.MAX_VALUE;
+		reserve = 0;
+		if ((snapshotName != null) && (checkpointInterval > 0) && (fuel > checkpointInterval)) {
+			reserve = fuel - checkpointInterval;
+			fuel = checkpointInterval;
+		}
+		deadline = System.nanoTime() + timeLimit * 1000000;
+		nextSample = fuel - sampleInterval;
+		if (trace != null)
+			nextHash = fuel - trace.hashInterval;
+		checkpoint = 0;
+		meter();
+	}
+
+	void step (long currentInstr) {
+		// Executes one packed word, with the whole stack held in data.
+
+		int op, k, n, d, addr, index;
+
+		// Decode instruction ...
+		op = (int) (currentInstr >>> 56);
+		k = (int) (currentInstr >>> 48) & 0xFF;
+		n = (int) (currentInstr >>> 32) & 0xFFFF;
+		d = (int) currentInstr;
+		// Execute instruction ...
+		switch (op) {
+		case LOADabs:
+			load(d, n);
+			CP = CP + 1;
+			break;
+		case LOADst:
+			load(d + ST, n);
+			CP = CP + 1;
+			break;
+		case LOADht:
+			load(d + HT, n);
+			CP = CP + 1;
+			break;
+		case LOADlb:
+			load(d + LB, n);
+			CP = CP + 1;
+			break;
+		case LOADlk:
+			load(d + staticLink(k), n);
+			CP = CP + 1;
+			break;
+		case LOADAabs:
+			loadAddress(d);
+			CP = CP + 1;
+			break;
+		case LOADAst:
+			loadAddress(d + ST);
+			CP = CP + 1;
+			break;
+		case LOADAht:
+			loadAddress(d + HT);
+			CP = CP + 1;
+			break;
+		case LOADAlb:
+			loadAddress(d + LB);
+			CP = CP + 1;
+			break;
+		case LOADAlk:
+			loadAddress(d + staticLink(k));
+			CP = CP + 1;
+			break;
+		case LOADIh:
+			ST = ST - 1;
+			load(data[ST], n);
+			CP = CP + 1;
+			break;
+		case LOADLh:
+			CP = CP + 1;
+			if (!checkSpace(1))
+				break;
+			data[ST] = d;
+			ST = ST + 1;
+			break;
+		case STOREabs:
+			store(d, n);
+			CP = CP + 1;
+			break;
+		case STOREst:
+			store(d + ST, n);
+			CP = CP + 1;
+			break;
+		case STOREht:
+			store(d + HT, n);
+			CP = CP + 1;
+			break;
+		case STORElb:
+			store(d + LB, n);
+			CP = CP + 1;
+			break;
+		case STORElk:
+			store(d + staticLink(k), n);
+			CP = CP + 1;
+			break;
+		case STOREIh:
+			ST = ST - 1;
+			store(data[ST], n);
+			CP = CP + 1;
+			break;
+		case CALLlk:
+			if (!checkSpace(3)) {
+				CP = CP + 1;
+				break;
+			}
+			data[ST] = staticLink(k); // static link
+			data[ST + 1] = LB; // dynamic link
+			data[ST + 2] = CP + 1; // return address
+			enterChain(k);
+			LB = ST;
+			ST = ST + 3;
+			CP = d;
+			if (charge(entryCost(d)) && tiering)
+				called();
+			break;
+		case CALLabs:
+			if (!checkSpace(3)) {
+				CP = CP + 1;
+				break;
+			}
+			data[ST] = n; // static link
+			data[ST + 1] = LB; // dynamic link
+			data[ST + 2] = CP + 1; // return address
+			enterFrame(n);
+			LB = ST;
+			ST = ST + 3;
+			CP = d;
+			if (charge(entryCost(d)) && tiering)
+				called();
+			break;
+		case CALLIh:
+			ST = ST - 2;
+			addr = data[ST + 1];
+			if (addr >= PB) {
+				callPrimitive(addr - PB);
+				CP = CP + 1;
+			} else {
+				if (!checkSpace(3)) {
+					ST = ST + 2;
+					CP = CP + 1;
+					break;
+				}
+				// data[ST] = static link already
+				data[ST + 1] = LB; // dynamic link
+				data[ST + 2] = CP + 1; // return address
+				enterFrame(data[ST]);
+				LB = ST;
+				ST = ST + 3;
+				CP = addr;
+				if (charge(entryCost(addr)) && tiering)
+					called();
+			}
+			break;
+		case RETURNh:
+			addr = LB - d;
+			CP = data[LB + 2];
+			LB = data[LB + 1];
+			DP = display[DP - 2];
+			ST = ST - n;
+			for (index = 0; index < n; index++)
+				data[addr + index] = data[ST + index];
+			ST = addr + n;
+			break;
+		case PUSHh:
+			CP = CP + 1;
+			if (checkSpace(d))
+				ST = ST + d;
+			break;
+		case POPh:
+			addr = ST - n - d;
+			ST = ST - n;
+			for (index = 0; index < n; index++)
+				data[addr + index] = data[ST + index];
+			ST = addr + n;
+			CP = CP + 1;
+			break;
+		case JUMPabs:
+			jump(d);
+			break;
+		case JUMPIh:
+			ST = ST - 1;
+			CP = data[ST];
+			break;
+		case JUMPIFabs:
+			ST = ST - 1;
+			if (data[ST] == n)
+				jump(d);
+			else
+				CP = CP + 1;
+			break;
+		case HALTh:
+			status = halted;
+			break;
+		case GENERIC:
+			execute(generic.get(d));
+			break;
+		case TRAPh:
+			// a breakpoint: stop at it, or run past it if the run has just
+			// continued from it
+			if (breakpoints.passing == CP) {
+				breakpoints.passing = -1;
+				step(breakpoints.original(CP));
+			} else {
+				breakpoints.passing = CP;
+				status = stopped;
+			}
+			break;
+		case ADDL:
+		case SUBL:
+		case MULTL:
+		case LTL:
+		case LEL:
+		case GEL:
+		case GTL:
+		case CHECKL:
+			// LOADL d followed by a binary primitive
+			if (HT - ST < 1) {
+				// let the LOADL fail on its own
+				CP = CP + 1;
+				if (checkSpace(1))
+					data[ST++] = d;
+				break;
+			}
+			switch (op) {
+			case ADDL:
+				data[ST - 1] = overflowChecked((long) data[ST - 1] + d);
+				break;
+			case SUBL:
+				data[ST - 1] = overflowChecked((long) data[ST - 1] - d);
+				break;
+			case MULTL:
+				data[ST - 1] = overflowChecked((long) data[ST - 1] * d);
+				break;
+			case LTL:
+				data[ST - 1] = toInt(data[ST - 1] < d);
+				break;
+			case LEL:
+				data[ST - 1] = toInt(data[ST - 1] <= d);
+				break;
+			case GEL:
+				data[ST - 1] = toInt(data[ST - 1] >= d);
+				break;
+			case GTL:
+				data[ST - 1] = toInt(data[ST - 1] > d);
+				break;
+			case CHECKL:
+				if (data[ST - 1] >= d || data[ST - 1] < 0)
+					status = failedArrayCheck;
+				break;
+			}
+			CP = CP + 2;
+			break;
+		case LITERALS:
+			// a run of operands[d] LOADLs
+			n = operands[d];
+			if (HT - ST < n) {
+				CP = CP + 1;
+				if (checkSpace(1))
+					data[ST++] = operands[d + 1];
+				break;
+			}
+			System.arraycopy(operands, d + 1, data, ST, n);
+			ST = ST + n;
+			CP = CP + n;
+			break;
+		case CMPJUMP:
+			// two single-word loads, a comparison and a JUMPIF
+			if (HT - ST < 2) {
+				CP = CP + 1;
+				if (checkSpace(1)) {
+					data[ST] = operand(operands[d], operands[d + 1], ST);
+					ST = ST + 1;
+				}
+				break;
+			}
+			addr = operand(operands[d], operands[d + 1], ST);
+			index = operand(operands[d + 2], operands[d + 3], ST + 1);
+			if (toInt(compare(operands[d + 4], addr, index)) == n)
+				jump(operands[d + 5]);
+			else
+				CP = CP + 4;
+			break;
+		case primBase + Machine.notDisplacement:
+			data[ST - 1] = toInt(!isTrue(data[ST - 1]));
+			CP = CP + 1;
+			break;
+		case primBase + Machine.succDisplacement:
+			data[ST - 1] = overflowChecked(data[ST - 1] + 1);
+			CP = CP + 1;
+			break;
+		case primBase + Machine.predDisplacement:
+			data[ST - 1] = overflowChecked(data[ST - 1] - 1);
+			CP = CP + 1;
+			break;
+		case primBase + Machine.addDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator + data[ST]);
+			CP = CP + 1;
+			break;
+		case primBase + Machine.subDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator - data[ST]);
+			CP = CP + 1;
+			break;
+		case primBase + Machine.multDisplacement:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator * data[ST]);
+			CP = CP + 1;
+			break;
+		case primBase + Machine.ltDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] < data[ST]);
+			CP = CP + 1;
+			break;
+		case primBase + Machine.leDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] <= data[ST]);
+			CP = CP + 1;
+			break;
+		case primBase + Machine.geDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] >= data[ST]);
+			CP = CP + 1;
+			break;
+		case primBase + Machine.gtDisplacement:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] > data[ST]);
+			CP = CP + 1;
+			break;
+		case primBase + Machine.arrayCheckDisplacement:
+			if(data[ST - 2] >= data[ST - 1] || data[ST - 2] < 0){
+				status = failedArrayCheck;
+			}
+			ST = ST - 1;
+			CP = CP + 1;
+			break;
+		default:
+			// the remaining primitives
+			callPrimitive(op - primBase);
+			CP = CP + 1;
+			break;
+		}
+	}
+
+	void interpretCached() {
+		// Runs the program in code store, keeping the word on top of the
+		// stack in tos instead of data[ST - 1] while cached is set. ST still
+		// counts that word, so checkSpace sees the same stack as in step.
+		// Words with no handler here spill the cached word and run in step.
+
+		long currentInstr;
+		int op, k, n, d, addr, value;
+		int tos = 0;
+		boolean cached = false;
+
+		do {
+			// Fetch instruction ...
+			currentInstr = code[CP];
+			// Decode instruction ...
+			op = (int) (currentInstr >>> 56);
+			k = (int) (currentInstr >>> 48) & 0xFF;
+			n = (int) (currentInstr >>> 32) & 0xFFFF;
+			d = (int) currentInstr;
+			// Execute instruction ...
+			handled: {
+				switch (op) {
+				case LOADabs:
+				case LOADlb:
+				case LOADlk:
+					if ((n != 1) || (HT - ST < 1))
+						break;
+					addr = (op == LOADabs) ? d : (op == LOADlb) ? d + LB : d + staticLink(k);
+					value = (cached && addr == ST - 1) ? tos : data[addr];
+					if (cached)
+						data[ST - 1] = tos;
+					tos = value;
+					cached = true;
+					ST = ST + 1;
+					CP = CP + 1;
+					break handled;
+				case LOADLh:
+					if (HT - ST < 1)
+						break;
+					if (cached)
+						data[ST - 1] = tos;
+					tos = d;
+					cached = true;
+					ST = ST + 1;
+					CP = CP + 1;
+					break handled;
+				case STOREabs:
+				case STORElb:
+				case STORElk:
+					if (n != 1)
+						break;
+					addr = (op == STOREabs) ? d : (op == STORElb) ? d + LB : d + staticLink(k);
+					value = cached ? tos : data[ST - 1];
+					cached = false;
+					ST = ST - 1;
+					data[addr] = value;
+					CP = CP + 1;
+					break handled;
+				case JUMPabs:
+					if (tiering)
+						break;
+					if ((d <= CP) && (d >= CB)) {
+						// the charge may hash the stack (see Trace)
+						if (cached)
+							data[ST - 1] = tos;
+						charge(loopCost[d]);
+					}
+					CP = d;
+					break handled;
+				case JUMPIFabs:
+					if (tiering)
+						break;
+					value = cached ? tos : data[ST - 1];
+					cached = false;
+					ST = ST - 1;
+					if (value != n)
+						CP = CP + 1;
+					else {
+						if ((d <= CP) && (d >= CB))
+							charge(loopCost[d]);
+						CP = d;
+					}
+					break handled;
+				case ADDL:
+				case SUBL:
+				case MULTL:
+				case LTL:
+				case LEL:
+				case GEL:
+				case GTL:
+				case CHECKL:
+					// LOADL d followed by a binary primitive
+					if (HT - ST < 1)
+						break;
+					value = cached ? tos : data[ST - 1];
+					switch (op) {
+					case ADDL:
+						tos = overflowChecked((long) value + d);
+						break;
+					case SUBL:
+						tos = overflowChecked((long) value - d);
+						break;
+					case MULTL:
+						tos = overflowChecked((long) value * d);
+						break;
+					case LTL:
+						tos = toInt(value < d);
+						break;
+					case LEL:
+						tos = toInt(value <= d);
+						break;
+					case GEL:
+						tos = toInt(value >= d);
+						break;
+					case GTL:
+						tos = toInt(value > d);
+						break;
+					case CHECKL:
+						if (value >= d || value < 0)
+							status = failedArrayCheck;
+						tos = value;
+						break;
+					}
+					cached = true;
+					CP = CP + 2;
+					break handled;
+				case primBase + Machine.notDisplacement:
+					value = cached ? tos : data[ST - 1];
+					tos = toInt(!isTrue(value));
+					cached = true;
+					CP = CP + 1;
+					break handled;
+				case primBase + Machine.succDisplacement:
+					value = cached ? tos : data[ST - 1];
+					tos = overflowChecked(value + 1);
+					cached = true;
+					CP = CP + 1;
+					break handled;
+				case primBase + Machine.predDisplacement:
+					value = cached ? tos : data[ST - 1];
+					tos = overflowChecked(value - 1);
+					cached = true;
+					CP = CP + 1;
+					break handled;
+				case primBase + Machine.addDisplacement:
+					value = cached ? tos : data[ST - 1];
+					ST = ST - 1;
+					tos = overflowChecked((long) data[ST - 1] + value);
+					cached = true;
+					CP = CP + 1;
+					break handled;
+				case primBase + Machine.subDisplacement:
+					value = cached ? tos : data[ST - 1];
+					ST = ST - 1;
+					tos = overflowChecked((long) data[ST - 1] - value);
+					cached = true;
+					CP = CP + 1;
+					break handled;
+				case primBase + Machine.multDisplacement:
+					value = cached ? tos : data[ST - 1];
+					ST = ST - 1;
+					tos = overflowChecked((long) data[ST - 1] * value);
+					cached = true;
+					CP = CP + 1;
+					break handled;
+				case primBase + Machine.ltDisplacement:
+					value = cached ? tos : data[ST - 1];
+					ST = ST - 1;
+					tos = toInt(data[ST - 1] < value);
+					cached = true;
+					CP = CP + 1;
+					break handled;
+				case primBase + Machine.leDisplacement:
+					value = cached ? tos : data[ST - 1];
+					ST = ST - 1;
+					tos = toInt(data[ST - 1] <= value);
+					cached = true;
+					CP = CP + 1;
+					break handled;
+				case primBase + Machine.geDisplacement:
+					value = cached ? tos : data[ST - 1];
+					ST = ST - 1;
+					tos = toInt(data[ST - 1] >= value);
+					cached = true;
+					CP = CP + 1;
+					break handled;
+				case primBase + Machine.gtDisplacement:
+					value = cached ? tos : data[ST - 1];
+					ST = ST - 1;
+					tos = toInt(data[ST - 1] > value);
+					cached = true;
+					CP = CP + 1;
+					break handled;
+				case primBase + Machine.arrayCheckDisplacement:
+					value = cached ? tos : data[ST - 1];
+					ST = ST - 1;
+					tos = data[ST - 1];
+					if (tos >= value || tos < 0)
+						status = failedArrayCheck;
+					cached = true;
+					CP = CP + 1;
+					break handled;
+				}
+				// no handler here, so run the word with the whole stack in data
+				if (cached)
+					data[ST - 1] = tos;
+				cached = false;
+				step(currentInstr);
+			}
+			if ((CP < CB) || (CP >= CT))
+				status = failedInvalidCodeAddress;
+		} while (status == running);
+		if (cached)
+			data[ST - 1] = tos;
+	}
+
+
+	// TIERED EXECUTION
+
+	void prepareTiers() {
+		// Clears the counters and translations of the loaded program.
+
+		routineOf = routines();
+		invocations = new int[CT];
+		backEdges = new int[CT];
+		compiled = new MethodHandle[CT];
+		untranslatable = new boolean[CT];
+		if (breakpoints != null)
+			breakpoints.keepInterpreted();
+	}
+
+	int[] routines() {
+		// Returns the entry address of the routine holding each code
+		// address, CB for the main program.
+
+		if (translator == null)
+			translator = new Translator(this);
+		return translator.owner;
+	}
+
+	boolean called() {
+		// Counts a call of the routine at CP, whose frame has just been
+		// pushed, and runs the routine in translated code if it is hot.
+		// Tests whether it did.
+
+		if ((CP < CB) || (CP >= CT) || (routineOf[CP] != CP))
+			return false;
+		invocations[CP]++;
+		return resume(CP);
+	}
+
+	void jumpedBack() {
+		// Counts a jump back to CP, and carries on in translated code from
+		// there if its routine is hot.
+
+		if ((CP < CB) || (CP >= CT))
+			return;
+		backEdges[routineOf[CP]]++;
+		resume(routineOf[CP]);
+	}
+
+	boolean resume(int entry) {
+		// Runs the routine at entry in translated code from CP until it
+		// returns, translating it first if it has just become hot. Tests
+		// whether it did.
+
+		if (compiled[entry] == null) {
+			if (untranslatable[entry] || (invocations[entry] + backEdges[entry] < threshold))
+				return false;
+			compiled[entry] = translator.compileRoutine(entry);
+			if (compiled[entry] == null) {
+				untranslatable[entry] = true;
+				return false;
+			}
+		}
+		try {
+			compiled[entry].invokeExact(this, CP);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+		return true;
+	}
+
+	boolean pushFrame(int st, int link, int k, int returnAddress, int entry) {
+		// Pushes the link data for a call from translated code with the
+		// stack top at st of the routine at entry. The static link is link,
+		// which is Lk of the caller unless k is negative. Sets CP to entry,
+		// so that CP is within the routine that is running, for Sampler,
+		// until it returns. Tests whether the run may go on; if not, the
+		// machine is as the interpreter would leave it, with CP past the
+		// call if there was no space for the frame.
+
+		ST = st;
+		if (!checkSpace(3)) {
+			CP = returnAddress;
+			return false;
+		}
+		data[st] = link; // static link
+		data[st + 1] = LB; // dynamic link
+		data[st + 2] = returnAddress; // return address
+		if (k >= 0)
+			enterChain(k);
+		else
+			enterFrame(link);
+		LB = st;
+		ST = st + 3;
+		CP = entry;
+		charge(callCost[entry]);
+		return status == running;
+	}
+
+	void enterRoutine(int entry) {
+		// Runs the routine at entry, whose frame translated code has just
+		// pushed, until it returns.
+
+		CP = entry;
+		if ((CP < CB) || (CP >= CT))
+			status = failedInvalidCodeAddress;
+		else if (!called())
+			interpretFrame();
+	}
+
+
+	// PRE-DECODING
+
+	int addressing (int base, int r, Instruction h, int cp) {
+		// Picks the variant of an addressed handler for register r: the
+		// variants follow base in the order abs, st, ht, lb, lk. A register
+		// whose content is fixed once the program is loaded is folded into
+		// h.d; the static-chain depth of L1, L2, ... is kept in h.r. HB moves
+		// when the data store grows (see expand), so an instruction addressed
+		// by it is left to GENERIC.
+
+		switch (r) {
+		case Machine.HBr:
+			return GENERIC;
+		case Machine.STr:
+			return base + 1;
+		case Machine.HTr:
+			return base + 2;
+		case Machine.LBr:
+			return base + 3;
+		case Machine.L1r:
+		case Machine.L2r:
+		case Machine.L3r:
+		case Machine.L4r:
+		case Machine.L5r:
+		case Machine.L6r:
+			h.r = r - Machine.LBr;
+			return base + 4;
+		case Machine.CPr:
+			h.d = h.d + cp;
+			return base;
+		default:
+			if (r >= Machine.L7r && isRegister(r)) {
+				h.r = r - Machine.L7r + 7;
+				return base + 4;
+			}
+			h.d = h.d + content(r);
+			return base;
+		}
+	}
+
+	long predecode (Instruction instr, int cp) {
+		// Translates the instruction at code address cp into a packed word
+		// whose op field is a handler number.
+
+		Instruction h = new Instruction();
+		int handler;
+
+		h.n = instr.n;
+		h.d = instr.d;
+		switch (instr.op) {
+		case Machine.LOADop:
+			handler = addressing(LOADabs, instr.r, h, cp);
+			break;
+		case Machine.LOADAop:
+			handler = addressing(LOADAabs, instr.r, h, cp);
+			break;
+		case Machine.LOADIop:
+			handler = LOADIh;
+			break;
+		case Machine.LOADLop:
+			handler = LOADLh;
+			break;
+		case Machine.STOREop:
+			handler = addressing(STOREabs, instr.r, h, cp);
+			break;
+		case Machine.STOREIop:
+			handler = STOREIh;
+			break;
+		case Machine.CALLop:
+			handler = addressing(LOADabs, instr.r, h, cp) == LOADabs ? CALLabs : GENERIC;
+			if (handler == GENERIC)
+				break;
+			if (h.d >= PB) {
+				if (h.d - PB < 0x100 - primBase)
+					handler = primBase + h.d - PB;
+				else
+					handler = GENERIC;
+				break;
+			}
+			// the static link is addressed like a LOADA operand
+			Instruction link = new Instruction();
+			switch (instr.n) {
+			case Machine.STr:
+			case Machine.HTr:
+			case Machine.HBr:
+				handler = GENERIC;
+				break;
+			case Machine.LBr:
+				handler = CALLlk;
+				h.r = 0;
+				break;
+			default:
+				if (!isRegister(instr.n))
+					handler = GENERIC;
+				else if (addressing(LOADAabs, instr.n, link, cp) == LOADAlk) {
+					handler = CALLlk;
+					h.r = link.r;
+				} else if ((link.d & 0xFFFF) == link.d)
+					h.n = link.d;
+				else
+					handler = GENERIC;
+			}
+			break;
+		case Machine.CALLIop:
+			handler = CALLIh;
+			break;
+		case Machine.RETURNop:
+			handler = RETURNh;
+			break;
+		case Machine.PUSHop:
+			handler = PUSHh;
+			break;
+		case Machine.POPop:
+			handler = POPh;
+			break;
+		case Machine.JUMPop:
+			handler = addressing(LOADabs, instr.r, h, cp) == LOADabs ? JUMPabs : GENERIC;
+			break;
+		case Machine.JUMPIop:
+			handler = JUMPIh;
+			break;
+		case Machine.JUMPIFop:
+			handler = addressing(LOADabs, instr.r, h, cp) == LOADabs ? JUMPIFabs : GENERIC;
+			break;
+		case Machine.HALTop:
+			handler = HALTh;
+			break;
+		default:
+			handler = GENERIC;
+		}
+		if (handler == GENERIC) {
+			h = new Instruction();
+			h.d = generic.size();
+			generic.add(instr);
+		}
+		h.op = handler;
+		return h.pack();
+	}
+
+	int addOperands (int... values) {
+		// Appends values to the operand table, returning their offset.
+
+		if (operandCount + values.length > operands.length)
+			operands = java.util.Arrays.copyOf(operands,
+					Math.max(2 * operands.length, operandCount + values.length));
+		System.arraycopy(values, 0, operands, operandCount, values.length);
+		operandCount = operandCount + values.length;
+		return operandCount - values.length;
+	}
+
+	int operandKind (long word) {
+		// Returns the operand kind (see operand) of a pre-decoded word that
+		// pushes a single word, or -1.
+
+		int op = (int) (word >>> 56);
+		int n = (int) (word >>> 32) & 0xFFFF;
+		if (op == LOADLh)
+			return 0;
+		if (n != 1)
+			return -1;
+		switch (op) {
+		case LOADabs:
+			return 1;
+		case LOADst:
+			return 2;
+		case LOADlb:
+			return 3;
+		default:
+			return -1;
+		}
+	}
+
+	int fuseAt (int cp) {
+		// Replaces the word at cp by a superinstruction if a known sequence
+		// starts there, returning the length of the sequence (1 if none).
+		// The words after cp are left as they are, so a jump into the
+		// middle of a fused sequence still finds the plain instructions.
+
+		int op = (int) (code[cp] >>> 56);
+		int d = (int) code[cp];
+		int next = (cp + 1 < CT) ? (int) (code[cp + 1] >>> 56) : -1;
+
+		// LOAD/LOADL; LOAD/LOADL; CALL lt|le|ge|gt; JUMPIF
+		if (cp + 3 < CT && operandKind(code[cp]) >= 0
+				&& operandKind(code[cp + 1]) >= 0
+				&& (int) (code[cp + 3] >>> 56) == JUMPIFabs) {
+			int compare = (int) (code[cp + 2] >>> 56) - primBase;
+			if (compare == Machine.ltDisplacement || compare == Machine.leDisplacement
+					|| compare == Machine.geDisplacement || compare == Machine.gtDisplacement) {
+				int offset = addOperands(operandKind(code[cp]), (int) code[cp],
+						operandKind(code[cp + 1]), (int) code[cp + 1],
+						compare, (int) code[cp + 3]);
+				code[cp] = Instruction.pack(CMPJUMP, 0,
+						(int) (code[cp + 3] >>> 32) & 0xFFFF, offset);
+				return 4;
+			}
+		}
+		if (op != LOADLh)
+			return 1;
+
+		// LOADL; CALL add|sub|mult|lt|le|ge|gt|arrayCheck
+		int fused;
+		switch (next - primBase) {
+		case Machine.addDisplacement:
+			fused = ADDL;
+			break;
+		case Machine.subDisplacement:
+			fused = SUBL;
+			break;
+		case Machine.multDisplacement:
+			fused = MULTL;
+			break;
+		case Machine.ltDisplacement:
+			fused = LTL;
+			break;
+		case Machine.leDisplacement:
+			fused = LEL;
+			break;
+		case Machine.geDisplacement:
+			fused = GEL;
+			break;
+		case Machine.gtDisplacement:
+			fused = GTL;
+			break;
+		case Machine.arrayCheckDisplacement:
+			fused = CHECKL;
+			break;
+		default:
+			fused = -1;
+		}
+		if (fused >= 0) {
+			code[cp] = Instruction.pack(fused, 0, 0, d);
+			return 2;
+		}
+
+		// LOADL; LOADL; ...
+		int length = 1;
+		while (cp + length < CT && (int) (code[cp + length] >>> 56) == LOADLh)
+			length++;
+		if (length == 1)
+			return 1;
+		int[] values = new int[length + 1];
+		values[0] = length;
+		for (int i = 0; i < length; i++)
+			values[i + 1] = (int) code[cp + i];
+		code[cp] = Instruction.pack(LITERALS, 0, 0, addOperands(values));
+		return length;
+	}
+
+	void fuse () {
+		// Fuses the instruction sequences that the Encoder emits most often
+		// (as found by OpcodeNGrams) into superinstructions, each of which
+		// runs in a single dispatch.
+
+		operands = new int[64];
+		operandCount = 0;
+		for (int addr = CB; addr < CT; )
+			addr = addr + fuseAt(addr);
+	}
+
+
+	// LOADING
+
+	void loadObjectProgram (String objectName) {
+		// Loads the TAM object program into code store from the named file,
+		// which is mapped into memory. Only the header and the code are
+		// decoded now; the sections after them are decoded when they are
+		// first needed, which in most runs is never.
+
+		FileChannel objectFile = null;
+
+		try {
+			objectFile = FileChannel.open(Paths.get(objectName), StandardOpenOption.READ);
+			ByteBuffer buffer = objectFile.map(FileChannel.MapMode.READ_ONLY, 0, objectFile.size());
+			objectFile.close();
+			sectionsHeader = readCode(new DataInputStream (new BufferInput (buffer)));
+			sections = buffer.slice();
+			lineMap = null;
+			functionMap = null;
+			sources = null;
+			pointerMaps = null;
+		} catch (NoSuchFileException s) {
+			CT = CB;
+			System.err.println ("Error opening object file: " + s);
+		} catch (IOException s) {
+			CT = CB;
+			System.err.println ("Error reading object file: " + s);
+		}
+	}
+
+	void readObjectProgram (DataInputStream objectStream) throws IOException {
+		// Loads a TAM object program into code store from objectStream,
+		// decoding every section.
+
+		readSections(readCode(objectStream), objectStream);
+		sections = null;
+	}
+
+	ObjectFileHeader readCode (DataInputStream objectStream) throws IOException {
+		// Reads the header and the code of an object program from
+		// objectStream, and prepares the code for running. Returns the
+		// header.
+
+		int addr;
+
+		ObjectFileHeader header = new ObjectFileHeader(objectStream);
+		if (header.importCount > 0)
+			throw new IOException("the program has unresolved imports; link it first (see Linker)");
+		fileName = header.sourceFilename;
+		Instruction[] loaded = new Instruction[Machine.CB + header.instructionCount];
+		addr = Machine.CB;
+		for(int i = 0; i < header.instructionCount; i ++){
+			loaded[addr] = header.readInstruction(objectStream);
+			if (loaded[addr] == null)
+				break;
+			addr = addr + 1;
+		}
+		constants = header.readConstants(objectStream);
+		CT = addr;
+		PB = Math.max(Machine.PB, CT);
+		PT = PB + (Machine.PT - Machine.PB);
+		HB = (dataSize > 0) ? dataSize : (header.dataSize > 0) ? header.dataSize : 1024;
+		data = new int[HB];
+		instructions = loaded;
+		translator = null;
+		code = new long[CT];
+		generic = new ArrayList<Instruction>();
+		for (addr = Machine.CB; addr < CT; addr++)
+			code[addr] = predecode(loaded[addr], addr);
+		if (fusing && (profileName == null) && (coverageName == null))
+			fuse();
+		maxStack = verifying ? Verifier.verify(this) : null;
+		loopCost = loopCosts();
+		callCost = callCosts();
+		return header;
+	}
+
+	void readSections (ObjectFileHeader header, DataInputStream objectStream) throws IOException {
+		// Reads the line, symbol, pointer map and source sections that
+		// follow the code of an object program from objectStream.
+
+		lineMap = header.readLineMap(objectStream);
+		functionMap = header.readSymbols(objectStream);
+		pointerMaps = new HashMap<Integer, BitSet>();
+		for(int i = 0; i < header.pointerMapCount; i ++){
+			int[] words = header.readPointerMap(objectStream);
+			BitSet map = new BitSet();
+			for(int j = 0; j < 32 * (words.length - 1); j ++){
+				if ((words[1 + j / 32] & (1 << (j % 32))) != 0)
+					map.set(j);
+			}
+			pointerMaps.put(words[0], map);
+		}
+		header.readExports(objectStream);
+		header.readImports(objectStream);
+		sources = header.readSources(objectStream);
+	}
+
+	void decodeSections () {
+		// Decodes the sections of a memory-mapped object file that follow
+		// the code. A file that ends early leaves the rest of them empty.
+
+		if (sections == null)
+			return;
+		try {
+			readSections(sectionsHeader, new DataInputStream (new BufferInput (sections)));
+		} catch (IOException s) {
+			System.err.println ("Error reading object file: " + s);
+			if (lineMap == null)
+				lineMap = new ArrayList<Integer>();
+			if (functionMap == null)
+				functionMap = new ArrayList<String[]>();
+			if (pointerMaps == null)
+				pointerMaps = new HashMap<Integer, BitSet>();
+			if (sources == null)
+				sources = new TreeMap<Integer, String>();
+		}
+		while (lineMap.size() < CT)
+			lineMap.add(0);
+		sections = null;
+	}
+
+	ArrayList<Integer> lineMap () {
+		// Returns the source line of each instruction.
+
+		if (lineMap == null)
+			decodeSections();
+		return lineMap;
+	}
+
+	ArrayList<String[]> functionMap () {
+		// Returns the name, entry address and last address of each routine.
+
+		if (functionMap == null)
+			decodeSections();
+		return functionMap;
+	}
+
+	HashMap<Integer, BitSet> pointerMaps () {
+		// Returns the pointer map of each routine that has one.
+
+		if (pointerMaps == null)
+			decodeSections();
+		return pointerMaps;
+	}
+
+	TreeMap<Integer, String> sources () {
+		// Returns the source file of each stretch of the code of a linked
+		// program, by its first address; any other program has none.
+
+		if (sources == null)
+			decodeSections();
+		return sources;
+	}
+
+	String fileAt (int addr) {
+		// Returns the source file that the code at addr was compiled from.
+
+		Map.Entry<Integer, String> source = sources().floorEntry(addr);
+		return (source == null) ? fileName : source.getValue();
+	}
+
+	static class BufferInput extends InputStream {
+		// Reads the bytes of a buffer, such as a mapped file, from its
+		// position on.
+
+		final ByteBuffer buffer;
+
+		BufferInput (ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int read () {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		public int read (byte[] bytes, int offset, int length) {
+			if (length == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+	}
+
+
+	// RUNNING
+
+	public void run (String objectName) {
+		// Loads the named object program and runs it, then writes how it
+		// terminated.
+
+		this.objectName = objectName;
+		loadObjectProgram(objectName);
+		if (CT != CB) {
+			startInstruments();
+			if (reportingVerification)
+				out.println((maxStack != null) ? "Program verified, " + maxStack[CB] + " words for the main program"
+						: "Program not verified: " + ((verifyError != null) ? verifyError : "-noverify"));
+			interpretProgram();
+			finish();
+		}
+	}
+
+	public void runSnapshot (String snapshotName) {
+		// Restores the machine from the named snapshot and runs the program
+		// on from there, then writes how it terminated.
+
+		if (Snapshot.read(this, snapshotName)) {
+			startInstruments();
+			startMeter();
+			if (tiering)
+				prepareTiers();
+			continueProgram();
+			finish();
+		}
+	}
+
+	void startInstruments() {
+		// Gives the run a profiler if it is to be profiled, a sampler if it
+		// is to be sampled, a record of the blocks entered if its coverage
+		// is wanted, a trace if it is recorded or replayed, and its
+		// breakpoints. A profiled or covered run executes every instruction
+		// in step, so it is neither translated nor cached.
+
+		if (profileName != null) {
+			profiler = new Profiler(this);
+			tiering = false;
+			caching = false;
+		}
+		if (sampleName != null)
+			sampler = new Sampler(this);
+		if (coverageName != null) {
+			covered = new BitSet(CT);
+			blockEntries = Coverage.blockEntries(this);
+			tiering = false;
+			caching = false;
+		}
+		if (traceName != null)
+			trace = Trace.start(this, traceName, replaying);
+		if (!breakLines.isEmpty()) {
+			if (breakpoints == null)
+				breakpoints = new Breakpoints(this);
+			for (String line : breakLines) {
+				int colon = line.lastIndexOf(':');
+				String file = (colon < 0) ? fileName : line.substring(0, colon);
+				if (breakpoints.setLine(file, Integer.parseInt(line.substring(colon + 1))) == 0)
+					System.err.println ("Error setting breakpoint: no code for line " + line);
+			}
+		}
+	}
+
+	void finish() {
+		// Writes a snapshot at each checkpoint and carries on, then writes
+		// one if the program ran out of fuel or time or stopped at a
+		// breakpoint, and writes how it terminated.
+
+		while (status == suspended) {
+			Snapshot.write(this, snapshotName);
+			long slice = Math.min(reserve, checkpointInterval);
+			reserve = reserve - slice;
+			fuel = fuel + slice;
+			nextSample = nextSample + slice;
+			nextHash = nextHash + slice;
+			status = running;
+			if (meter())
+				continueProgram();
+		}
+		if ((snapshotName != null) && ((status == failedOutOfFuel) || (status == failedTimeLimit)
+				|| (status == stopped)))
+			Snapshot.write(this, snapshotName);
+		if (trace != null)
+			trace.close();
+		showStatus();
+		if (heapStatistics)
+			heap.report(out);
+		if (profiler != null) {
+			profiler.report(out);
+			profiler.write(profileName);
+		}
+		if (sampler != null)
+			sampler.write(sampleName);
+		if (covered != null) {
+			if (profiler != null)
+				for (int addr = CB; addr < CT; addr++)
+					if (profiler.counts[addr] > 0)
+						covered.set(addr);
+			Coverage.merge(this, covered, coverageName, out);
+		}
+	}
+}
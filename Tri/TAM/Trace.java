@@ -0,0 +1,214 @@
+/*
+ * @(#)Trace.java
+ *
+ * Records the input of a TamVM run, with hashes of the machine state, so
+ * that the run can be replayed exactly.
+ */
+
+package TAM;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A trace of a run. The only thing that a Triangle program does not
+ * determine for itself is its input, which reaches get, getint, geteol,
+ * eol and eof through the input channel of the machine's TamIO. While a
+ * run is recorded (the -record option) each block of bytes read from that
+ * channel is written to the trace, as is the end of the input; a replayed
+ * run (the -replay option) reads from the trace instead, so that every
+ * input primitive gives the result it gave before, at full speed.
+ *
+ * Every hashInterval units of fuel (see TamVM.charge) the recorded run
+ * also writes a hash of the machine state: LB, ST, HT, the whole stack
+ * from SB, globals included, and the heap. Fuel is charged only at calls
+ * and jumps back, where the interpreter, the cached interpreter and
+ * translated code all have the stack in the data store and ST up to
+ * date, and it is charged at the same points whichever way the program
+ * runs, so the replayed run computes its hashes at the same points, and
+ * fails with the status failedReplay at the first that differs, or if it
+ * reads input where the recorded run took a hash, or the other way round.
+ *
+ * The trace is a magic number and the hash interval, then records, each
+ * a tag byte: inputRecord, with the number of bytes and the bytes;
+ * endOfInputRecord; hashRecord, with the hash; and endRecord.
+ */
+
+public class Trace {
+
+  static final int traceMagic = 17400;
+
+  static final int endRecord = 0, inputRecord = 1, endOfInputRecord = 2, hashRecord = 3;
+
+  // The fuel spent between hashes of the machine state.
+  static final long defaultHashInterval = 1 << 20;
+
+  final TamVM vm;
+
+  final long hashInterval;
+
+  // The trace being written, or read.
+  DataOutputStream output;
+  DataInputStream input;
+
+  // Whether the trace being read has come to its end record.
+  boolean ended;
+
+  Trace (TamVM vm, DataOutputStream output) throws IOException {
+    this.vm = vm;
+    this.output = output;
+    hashInterval = defaultHashInterval;
+    output.writeInt(traceMagic);
+    output.writeLong(hashInterval);
+  }
+
+  Trace (TamVM vm, DataInputStream input) throws IOException {
+    this.vm = vm;
+    this.input = input;
+    if (input.readInt() != traceMagic)
+      throw new IOException("Not a TAM trace");
+    hashInterval = input.readLong();
+  }
+
+  /**
+   * Starts recording the run of the given machine in the named file, or
+   * replaying it from the named file. Returns null if the file cannot be
+   * opened.
+   */
+  static Trace start (TamVM vm, String traceName, boolean replaying) {
+    try {
+      final Trace trace = replaying
+        ? new Trace(vm, new DataInputStream(new BufferedInputStream(new FileInputStream(traceName))))
+        : new Trace(vm, new DataOutputStream(new BufferedOutputStream(new FileOutputStream(traceName))));
+      final ReadableByteChannel channel = vm.io.input;
+      vm.io = new TamIO(new ReadableByteChannel() {
+        public int read (ByteBuffer buffer) throws IOException {
+          return trace.read(channel, buffer);
+        }
+        public boolean isOpen () {
+          return true;
+        }
+        public void close () throws IOException {
+          channel.close();
+        }
+      }, vm.io.output);
+      return trace;
+    } catch (IOException s) {
+      System.err.println ("Error opening trace: " + s);
+      return null;
+    }
+  }
+
+  /**
+   * Reads the next block of input into buffer, from the channel if
+   * recording, or from the trace if replaying.
+   */
+  int read (ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    if (output != null) {
+      int start = buffer.position();
+      int count = channel.read(buffer);
+      if (count > 0) {
+        output.write(inputRecord);
+        output.writeInt(count);
+        output.write(buffer.array(), buffer.arrayOffset() + start, count);
+      } else if (count < 0)
+        output.write(endOfInputRecord);
+      output.flush();
+      return count;
+    }
+    int tag = next();
+    if (tag == endOfInputRecord)
+      return -1;
+    if (tag != inputRecord)
+      throw diverged("the program read input where the recorded run did not");
+    int count = input.readInt();
+    if (count > buffer.remaining())
+      throw diverged("the input does not fit the buffer");
+    input.readFully(buffer.array(), buffer.arrayOffset() + buffer.position(), count);
+    buffer.position(buffer.position() + count);
+    return count;
+  }
+
+  int next () throws IOException {
+    if (ended)
+      return endRecord;
+    try {
+      int tag = input.readByte();
+      ended = (tag == endRecord);
+      return tag;
+    } catch (EOFException s) {
+      ended = true;
+      return endRecord;
+    }
+  }
+
+  IOException diverged (String reason) {
+    System.err.println("Replay has diverged from the trace: " + reason);
+    return new IOException("replay diverged");
+  }
+
+  /**
+   * Returns a hash of the state of the machine (see above).
+   */
+  long hash () {
+    long h = 0xcbf29ce484222325L;
+    int[] data = vm.data;
+    h = (h ^ vm.LB) * 0x100000001b3L;
+    h = (h ^ vm.ST) * 0x100000001b3L;
+    h = (h ^ vm.HT) * 0x100000001b3L;
+    for (int addr = TamVM.SB; addr < vm.ST; addr++)
+      h = (h ^ data[addr]) * 0x100000001b3L;
+    for (int addr = vm.HT; addr < vm.HB; addr++)
+      h = (h ^ data[addr]) * 0x100000001b3L;
+    return h;
+  }
+
+  /**
+   * Writes a hash of the machine state if recording, or checks it against
+   * the trace if replaying. Called by TamVM.meter.
+   */
+  void check () {
+    try {
+      if (output != null) {
+        output.write(hashRecord);
+        output.writeLong(hash());
+        return;
+      }
+      int tag = next();
+      if (tag == endRecord)
+        return; // the recorded run stopped before here
+      if (tag != hashRecord)
+        diverged("the recorded run read input here");
+      else if (input.readLong() != hash())
+        diverged("the state of the machine differs");
+      else
+        return;
+    } catch (IOException s) {
+      System.err.println ("Error reading trace: " + s);
+    }
+    vm.status = TamVM.failedReplay;
+  }
+
+  /**
+   * Ends the trace.
+   */
+  void close () {
+    try {
+      if (output != null) {
+        output.write(endRecord);
+        output.close();
+      } else
+        input.close();
+    } catch (IOException s) {
+      System.err.println ("Error writing trace: " + s);
+    }
+  }
+}
@@ -0,0 +1,729 @@
+/*
+ * @(#)Translator.java
+ *
+ * Translates a TAM object program ahead of time into a JVM class, so that
+ * the JIT can compile Triangle programs like any other Java code.
+ */
+
+package TAM;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Translates a TAM object program into an equivalent Java class in package
+ * TAM, and compiles it. For example:
+ * <pre>
+ *   java TAM.Translator -d out -o Sort sort.tam
+ *   java -cp out:. TAM.Sort sort.tam
+ * </pre>
+ *
+ * Each routine in the symbol table (the functionMap of the object file)
+ * becomes a static method, and the code outside every routine becomes the
+ * method for the main program. Jumps become branches of a switch on the
+ * code address, routine calls become method calls, and the common
+ * primitives are expanded in line. The data store, the registers, the
+ * status codes and the overflow and array checks are those of a TamVM,
+ * which each method takes as its first argument; after a failure the
+ * machine is left exactly as the interpreter would leave it, so the dump
+ * is the same.
+ *
+ * A routine that cannot be translated (it jumps into another routine,
+ * computes a jump address or holds an invalid instruction) becomes a
+ * method that hands its frame to TamVM.interpretFrame. A translated
+ * routine assumes that the return address in its frame is not overwritten.
+ *
+ * The method for a routine takes the code address to start at, so that a
+ * routine whose loop has become hot can continue in translated code from
+ * the loop head. A TamVM translates single hot routines into hidden
+ * classes this way (see compileRoutine).
+ */
+
+public class Translator {
+
+  // The machine whose loaded program is translated.
+  final TamVM vm;
+
+  Instruction[] program;
+
+  int CT;
+
+  // The entry address of the innermost routine holding each code address,
+  // CB for the main program.
+  int[] owner;
+
+  // The routine entry addresses, ascending, with CB (the main program) first.
+  List<Integer> entries;
+
+  // The entry addresses of the routines in the class being written; calls
+  // to any other routine go through its call method.
+  List<Integer> members;
+
+  PrintWriter out;
+
+  /**
+   * Finds the routine that holds each code address.
+   */
+  void findRoutines () {
+    List<String[]> routines = new ArrayList<String[]>(vm.functionMap());
+    // outermost first, so that nested routines claim their own code last
+    Collections.sort(routines, new Comparator<String[]>() {
+      public int compare (String[] a, String[] b) {
+        return (Integer.parseInt(b[2]) - Integer.parseInt(b[1]))
+          - (Integer.parseInt(a[2]) - Integer.parseInt(a[1]));
+      }
+    });
+    owner = new int[CT];
+    entries = new ArrayList<Integer>();
+    entries.add(TamVM.CB);
+    for (String[] routine : routines) {
+      int start = Integer.parseInt(routine[1]);
+      int end = Integer.parseInt(routine[2]);
+      if (start <= TamVM.CB || start > end || end >= CT || entries.contains(start))
+        continue;
+      entries.add(start);
+      for (int addr = start; addr <= end; addr++)
+        owner[addr] = start;
+    }
+    Collections.sort(entries);
+  }
+
+  /**
+   * Returns the value of register r at the instruction at addr, as a Java
+   * expression.
+   */
+  String register (int r, int addr, boolean main) {
+    switch (r) {
+      case Machine.CBr:
+        return "" + TamVM.CB;
+      case Machine.CTr:
+        return "" + CT;
+      case Machine.PBr:
+        return "vm.PB";
+      case Machine.PTr:
+        return "vm.PT";
+      case Machine.SBr:
+        return "" + TamVM.SB;
+      case Machine.STr:
+        return "st";
+      case Machine.HBr:
+        return "vm.HB";
+      case Machine.HTr:
+        return "vm.HT";
+      case Machine.LBr:
+        return "lb";
+      case Machine.CPr:
+        return "" + addr;
+      default:
+        int k = level(r);
+        if (k == 0)
+          return "0";
+        return main ? "vm.staticLink(" + k + ")" : "l" + k;
+    }
+  }
+
+  /**
+   * Returns how many levels out along the static chain register r points,
+   * or 0 if it is not one of L1, L2, ...
+   */
+  int level (int r) {
+    if (r >= Machine.L1r && r <= Machine.L6r)
+      return r - Machine.LBr;
+    if (r >= Machine.L7r && TamVM.isRegister(r))
+      return r - Machine.L7r + 7;
+    return 0;
+  }
+
+  String address (int d, int r, int addr, boolean main) {
+    String base = register(r, addr, main);
+    if (base.equals("0"))
+      return "" + d;
+    return d == 0 ? base : "(" + base + " + " + d + ")";
+  }
+
+  /**
+   * Returns the address a jump or call at addr transfers control to, or -1
+   * if it depends on the state of the machine.
+   */
+  int target (Instruction instr, int addr) {
+    switch (instr.r) {
+      case Machine.CBr:
+      case Machine.SBr:
+        return instr.d;
+      case Machine.CTr:
+        return instr.d + CT;
+      case Machine.PBr:
+        return instr.d + vm.PB;
+      case Machine.PTr:
+        return instr.d + vm.PT;
+      case Machine.CPr:
+        return instr.d + addr;
+      case Machine.STr:
+      case Machine.HBr:
+      case Machine.HTr:
+      case Machine.LBr:
+        return -1;
+      default:
+        return level(instr.r) > 0 ? -1 : instr.d;
+    }
+  }
+
+  boolean inCode (int addr) {
+    return (TamVM.CB <= addr) && (addr < CT);
+  }
+
+  boolean fallsThrough (Instruction instr) {
+    return instr.op != Machine.JUMPop && instr.op != Machine.JUMPIop
+      && instr.op != Machine.RETURNop && instr.op != Machine.HALTop;
+  }
+
+  /**
+   * The most instructions a translated routine may have; longer ones would
+   * exceed the JVM's limit of 64K bytes of code per method.
+   */
+  static final int maxRoutineLength = 1000;
+
+  /**
+   * Tests whether the routine at entry can be translated.
+   */
+  boolean translatable (int entry) {
+    int length = 0;
+    for (int addr = entry; addr < CT; addr++) {
+      if (owner[addr] != entry)
+        continue;
+      if (++length > maxRoutineLength)
+        return false;
+      Instruction instr = program[addr];
+      if (instr.op < Machine.LOADop || instr.op > Machine.HALTop || instr.op == 9
+          || instr.op == Machine.JUMPIop)
+        return false;
+      if (instr.op == Machine.RETURNop && entry == TamVM.CB)
+        return false;
+      if (instr.op == Machine.JUMPop || instr.op == Machine.JUMPIFop
+          || instr.op == Machine.CALLop) {
+        int t = target(instr, addr);
+        if (t < 0)
+          return false;
+        if (instr.op != Machine.CALLop && inCode(t) && owner[t] != entry)
+          return false;
+      }
+      if (instr.op == Machine.CALLop && !TamVM.isRegister(instr.n))
+        return false;
+      if (fallsThrough(instr) && inCode(addr + 1) && owner[addr + 1] != entry)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Writes the statements that leave the machine as the interpreter would
+   * if it stopped with CP = cp.
+   */
+  String exit (String cp) {
+    return "{ fail(vm, st, " + cp + "); return; }";
+  }
+
+  /**
+   * Writes the statements that go on at t from a jump at addr, charging
+   * the fuel for the loop if the jump goes back (see TamVM.charge). ST is
+   * brought up to date first, for Trace to hash the stack.
+   */
+  String jump (int t, int addr) {
+    if (t > addr)
+      return "pc = " + t + "; continue;";
+    return "vm.ST = st; if (!vm.charge(" + vm.loopCost[t] + ")) " + exit("" + t) + " pc = " + t + "; continue;";
+  }
+
+  void check (int next) {
+    out.println("        if (vm.status != TamVM.running) " + exit("" + next));
+  }
+
+  void space (String n, int next) {
+    out.println("        if (vm.HT - st < " + n + ") {");
+    out.println("          vm.ST = st;");
+    out.println("          if (!vm.checkSpace(" + n + ")) " + exit("" + next));
+    out.println("          data = vm.data;");
+    out.println("        }");
+  }
+
+  void copy (String to, String from, int n) {
+    if (n == 1)
+      out.println("        data[" + to + "] = data[" + from + "];");
+    else if (n > 1)
+      out.println("        for (int i = 0; i < " + n + "; i++) data[" + to + " + i] = data[" + from + " + i];");
+  }
+
+  /**
+   * Writes a call of the primitive routine at displacement p.
+   */
+  void primitive (int p, int next) {
+    switch (p) {
+      case Machine.idDisplacement:
+        return;
+      case Machine.notDisplacement:
+        out.println("        data[st - 1] = TamVM.toInt(!TamVM.isTrue(data[st - 1]));");
+        return;
+      case Machine.succDisplacement:
+        out.println("        data[st - 1] = vm.overflowChecked(data[st - 1] + 1);");
+        check(next);
+        return;
+      case Machine.predDisplacement:
+        out.println("        data[st - 1] = vm.overflowChecked(data[st - 1] - 1);");
+        check(next);
+        return;
+      case Machine.addDisplacement:
+      case Machine.subDisplacement:
+      case Machine.multDisplacement:
+        String operator = p == Machine.addDisplacement ? "+" : p == Machine.subDisplacement ? "-" : "*";
+        out.println("        st = st - 1;");
+        out.println("        data[st - 1] = vm.overflowChecked((long) data[st - 1] " + operator + " data[st]);");
+        check(next);
+        return;
+      case Machine.ltDisplacement:
+      case Machine.leDisplacement:
+      case Machine.geDisplacement:
+      case Machine.gtDisplacement:
+        String relation = p == Machine.ltDisplacement ? "<" : p == Machine.leDisplacement ? "<="
+          : p == Machine.geDisplacement ? ">=" : ">";
+        out.println("        st = st - 1;");
+        out.println("        data[st - 1] = TamVM.toInt(data[st - 1] " + relation + " data[st]);");
+        return;
+      case Machine.arrayCheckDisplacement:
+        out.println("        if (data[st - 2] >= data[st - 1] || data[st - 2] < 0) vm.status = TamVM.failedArrayCheck;");
+        out.println("        st = st - 1;");
+        check(next);
+        return;
+      default:
+        out.println("        vm.ST = st;");
+        out.println("        vm.callPrimitive(" + p + ");");
+        out.println("        st = vm.ST;");
+        out.println("        data = vm.data;");
+        check(next);
+    }
+  }
+
+  /**
+   * Writes the statements that push a frame for the call at addr, with the
+   * static link in register r, and run the routine at t.
+   */
+  void call (int t, int r, int addr, boolean main) {
+    int k = (r == Machine.LBr || level(r) > 0) ? level(r) : -1;
+    out.println("        if (!vm.pushFrame(st, " + register(r, addr, main) + ", " + k
+        + ", " + (addr + 1) + ", " + t + ")) return;");
+    if (members.contains(t))
+      out.println("        r" + t + "(vm, " + t + ");");
+    else
+      out.println("        call(vm, " + t + ");");
+    out.println("        if (vm.status != TamVM.running) return;");
+    out.println("        st = vm.ST;");
+    out.println("        data = vm.data;");
+  }
+
+  /**
+   * Writes the statements for the instruction at addr in the routine
+   * whose entry is entry.
+   */
+  void instruction (int addr, int entry) {
+    Instruction instr = program[addr];
+    boolean main = entry == TamVM.CB;
+    int n = instr.n, d = instr.d, next = addr + 1, t;
+
+    switch (instr.op) {
+      case Machine.LOADop:
+        out.println("        addr = " + address(d, instr.r, addr, main) + ";");
+        space("" + n, next);
+        copy("st", "addr", n);
+        out.println("        st = st + " + n + ";");
+        check(next);
+        break;
+      case Machine.LOADAop:
+        space("1", next);
+        out.println("        data[st] = " + address(d, instr.r, addr, main) + ";");
+        out.println("        st = st + 1;");
+        check(next);
+        break;
+      case Machine.LOADIop:
+        out.println("        st = st - 1;");
+        out.println("        addr = data[st];");
+        space("" + n, next);
+        copy("st", "addr", n);
+        out.println("        st = st + " + n + ";");
+        check(next);
+        break;
+      case Machine.LOADLop:
+        space("1", next);
+        out.println("        data[st] = " + d + ";");
+        out.println("        st = st + 1;");
+        check(next);
+        break;
+      case Machine.STOREop:
+        out.println("        addr = " + address(d, instr.r, addr, main) + ";");
+        out.println("        st = st - " + n + ";");
+        copy("addr", "st", n);
+        break;
+      case Machine.STOREIop:
+        out.println("        st = st - 1;");
+        out.println("        addr = data[st];");
+        out.println("        st = st - " + n + ";");
+        copy("addr", "st", n);
+        break;
+      case Machine.CALLop:
+        t = target(instr, addr);
+        if (t >= vm.PB) {
+          primitive(t - vm.PB, next);
+          break;
+        }
+        call(t, n, addr, main);
+        break;
+      case Machine.CALLIop:
+        out.println("        st = st - 2;");
+        out.println("        addr = data[st + 1];");
+        out.println("        if (addr >= vm.PB) {");
+        out.println("          vm.ST = st;");
+        out.println("          vm.callPrimitive(addr - vm.PB);");
+        out.println("          st = vm.ST;");
+        out.println("          data = vm.data;");
+        out.println("          if (vm.status != TamVM.running) " + exit("" + next));
+        out.println("        } else {");
+        space("3", next);
+        out.println("        vm.ST = st;");
+        out.println("        vm.enterFrame(data[st]);");
+        out.println("        data[st + 1] = lb;");
+        out.println("        data[st + 2] = " + next + ";");
+        out.println("        vm.LB = st;");
+        out.println("        vm.ST = st + 3;");
+        out.println("        vm.CP = addr;");
+        out.println("        if (!vm.charge(vm.entryCost(addr))) { fail(vm, st + 3, addr); return; }");
+        out.println("        call(vm, addr);");
+        out.println("        if (vm.status != TamVM.running) return;");
+        out.println("        st = vm.ST;");
+        out.println("        data = vm.data;");
+        out.println("        }");
+        break;
+      case Machine.RETURNop:
+        out.println("        addr = lb - " + d + ";");
+        out.println("        vm.CP = data[lb + 2];");
+        out.println("        vm.LB = data[lb + 1];");
+        out.println("        vm.DP = vm.display[vm.DP - 2];");
+        out.println("        st = st - " + n + ";");
+        copy("addr", "st", n);
+        out.println("        vm.ST = addr + " + n + ";");
+        out.println("        return;");
+        break;
+      case Machine.PUSHop:
+        space("" + d, next);
+        out.println("        st = st + " + d + ";");
+        check(next);
+        break;
+      case Machine.POPop:
+        out.println("        addr = st - " + (n + d) + ";");
+        out.println("        st = st - " + n + ";");
+        copy("addr", "st", n);
+        out.println("        st = addr + " + n + ";");
+        break;
+      case Machine.JUMPop:
+        t = target(instr, addr);
+        if (inCode(t))
+          out.println("        " + jump(t, addr));
+        else
+          out.println("        " + exit("" + t));
+        break;
+      case Machine.JUMPIFop:
+        t = target(instr, addr);
+        out.println("        st = st - 1;");
+        out.println("        if (data[st] == " + n + ") "
+            + (inCode(t) ? "{ " + jump(t, addr) + " }" : exit("" + t)));
+        break;
+      case Machine.HALTop:
+        out.println("        vm.status = TamVM.halted;");
+        out.println("        " + exit("" + addr));
+        break;
+    }
+    if (fallsThrough(instr) && !inCode(next))
+      out.println("        " + exit("" + next));
+  }
+
+  /**
+   * Writes the method for the routine whose entry is entry.
+   */
+  void routine (int entry) {
+    boolean main = entry == TamVM.CB;
+    String[] name = null;
+    for (String[] routine : vm.functionMap())
+      if (Integer.parseInt(routine[1]) == entry)
+        name = routine;
+
+    out.println();
+    out.println("  // " + (main ? "main program" : name[0] + ", " + name[1] + ".." + name[2]));
+    out.println("  static void r" + entry + " (TamVM vm, int pc) {");
+    if (!translatable(entry)) {
+      out.println("    vm.CP = pc;");
+      out.println("    vm.interpretFrame();");
+      out.println("  }");
+      return;
+    }
+
+    // code addresses that control can arrive at other than in sequence
+    boolean[] leader = new boolean[CT + 1];
+    boolean[] levels = new boolean[Machine.L7r + Machine.maxRoutineLevel];
+    boolean transfer = true;
+    for (int addr = entry; addr < CT; addr++) {
+      if (owner[addr] != entry)
+        continue;
+      Instruction instr = program[addr];
+      if (transfer)
+        leader[addr] = true;
+      transfer = !fallsThrough(instr) || instr.op == Machine.JUMPIFop;
+      if (instr.op == Machine.JUMPop || instr.op == Machine.JUMPIFop) {
+        int t = target(instr, addr);
+        if (inCode(t))
+          leader[t] = true;
+      }
+      levels[level(instr.r)] = true;
+      if (instr.op == Machine.CALLop)
+        levels[level(instr.n)] = true;
+    }
+
+    out.println("    int[] data = vm.data;");
+    out.println("    int st = vm.ST;");
+    out.println("    final int lb = vm.LB;");
+    if (!main)
+      for (int k = 1; k < levels.length; k++)
+        if (levels[k])
+          out.println("    final int l" + k + " = vm.staticLink(" + k + ");");
+    out.println("    int addr;");
+    out.println("    for (;;) {");
+    out.println("      switch (pc) {");
+    for (int addr = entry; addr < CT; addr++) {
+      if (owner[addr] != entry)
+        continue;
+      if (leader[addr])
+        out.println("      case " + addr + ":");
+      instruction(addr, entry);
+    }
+    out.println("      default:");
+    out.println("        return;");
+    out.println("      }");
+    out.println("    }");
+    out.println("  }");
+  }
+
+  /**
+   * Writes the Java source of the translated program.
+   */
+  void writeHeader (String className, String objectName) {
+    out.println("// Translated from " + objectName + " by TAM.Translator.");
+    out.println();
+    out.println("package TAM;");
+    out.println();
+    out.println("public class " + className + " {");
+    out.println();
+    out.println("  static void fail (TamVM vm, int st, int cp) {");
+    out.println("    vm.ST = st;");
+    out.println("    vm.CP = cp;");
+    out.println("    if ((cp < TamVM.CB) || (cp >= vm.CT))");
+    out.println("      vm.status = TamVM.failedInvalidCodeAddress;");
+    out.println("  }");
+    out.println();
+  }
+
+  void writeClass (String className, String objectName) {
+    members = entries;
+    writeHeader(className, objectName);
+    out.println("  static void call (TamVM vm, int t) {");
+    out.println("    switch (t) {");
+    for (int entry : entries)
+      if (entry != TamVM.CB)
+        out.println("      case " + entry + ": r" + entry + "(vm, " + entry + "); return;");
+    out.println("    }");
+    out.println("    vm.CP = t;");
+    out.println("    if ((t < TamVM.CB) || (t >= vm.CT))");
+    out.println("      vm.status = TamVM.failedInvalidCodeAddress;");
+    out.println("    else");
+    out.println("      vm.interpretFrame();");
+    out.println("  }");
+    for (int entry : entries)
+      routine(entry);
+    out.println();
+    out.println("  public static void main (String[] args) {");
+    out.println("    System.out.println(\"********** TAM Interpreter (Java Version 2.1) **********\");");
+    out.println();
+    out.println("    TamVM vm = new TamVM();");
+    out.println("    vm.objectName = (args.length == 1) ? args[0] : \""
+        + objectName.replace("\\", "\\\\").replace("\"", "\\\"") + "\";");
+    out.println("    vm.loadObjectProgram(vm.objectName);");
+    out.println("    if (vm.CT != " + CT + ") {");
+    out.println("      if (vm.CT != TamVM.CB)");
+    out.println("        System.err.println(\"Object program does not match translation\");");
+    out.println("      return;");
+    out.println("    }");
+    out.println("    vm.initializeRegisters();");
+    out.println("    try {");
+    out.println("      r" + TamVM.CB + "(vm, " + TamVM.CB + ");");
+    out.println("    } finally {");
+    out.println("      vm.flushOutput();");
+    out.println("    }");
+    out.println("    vm.showStatus();");
+    out.println("  }");
+    out.println("}");
+  }
+
+  /**
+   * Makes a translator for the program the given machine has loaded, and
+   * finds its routines.
+   */
+  Translator (TamVM vm) {
+    this.vm = vm;
+    program = vm.instructions;
+    CT = vm.CT;
+    findRoutines();
+  }
+
+  /**
+   * Translates the routine at entry into a hidden class, and returns its
+   * method, or null if the routine cannot be translated. Calls to other
+   * routines go back through TamVM.enterRoutine.
+   */
+  MethodHandle compileRoutine (int entry) {
+    if (!translatable(entry))
+      return null;
+    String className = "Routine" + entry;
+    StringWriter source = new StringWriter();
+    out = new PrintWriter(source);
+    members = Arrays.asList(entry);
+    writeHeader(className, vm.objectName);
+    out.println("  static void call (TamVM vm, int t) {");
+    out.println("    vm.enterRoutine(t);");
+    out.println("  }");
+    routine(entry);
+    out.println("}");
+    out.close();
+
+    byte[] bytes = compile(className, source.toString());
+    if (bytes == null)
+      return null;
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+      return lookup.findStatic(lookup.lookupClass(), "r" + entry,
+          MethodType.methodType(void.class, TamVM.class, int.class));
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Compiles the source of class TAM.className in memory, and returns the
+   * class file, or null if it does not compile.
+   */
+  static byte[] compile (String className, final String source) {
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    if (javac == null)
+      return null;
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    StandardJavaFileManager standard = javac.getStandardFileManager(null, null, null);
+    JavaFileManager files = new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+      public JavaFileObject getJavaFileForOutput (Location location, String name,
+          JavaFileObject.Kind kind, FileObject sibling) {
+        return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/')
+            + kind.extension), kind) {
+          public OutputStream openOutputStream () {
+            return bytes;
+          }
+        };
+      }
+    };
+    JavaFileObject unit = new SimpleJavaFileObject(URI.create("mem:///TAM/" + className
+        + ".java"), JavaFileObject.Kind.SOURCE) {
+      public CharSequence getCharContent (boolean ignoreEncodingErrors) {
+        return source;
+      }
+    };
+    boolean compiled = javac.getTask(null, files, new DiagnosticCollector<JavaFileObject>(),
+        Arrays.asList("-nowarn", "-cp", System.getProperty("java.class.path")),
+        null, Arrays.asList(unit)).call();
+    return compiled ? bytes.toByteArray() : null;
+  }
+
+  /**
+   * Returns a class name made from the name of the object file.
+   */
+  static String classNameFor (String objectName) {
+    String base = new File(objectName).getName();
+    if (base.endsWith(".tam"))
+      base = base.substring(0, base.length() - 4);
+    StringBuilder name = new StringBuilder("Program_");
+    for (char c : base.toCharArray())
+      name.append(Character.isJavaIdentifierPart(c) ? c : '_');
+    return name.toString();
+  }
+
+  public static void main (String[] args) {
+    System.out.println ("********** TAM Translator **********");
+
+    String objectName = "obj.tam", directory = ".", className = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-d") && i + 1 < args.length)
+        directory = args[++i];
+      else if (args[i].equals("-o") && i + 1 < args.length)
+        className = args[++i];
+      else
+        objectName = args[i];
+    }
+    if (className == null)
+      className = classNameFor(objectName);
+
+    TamVM vm = new TamVM();
+    vm.loadObjectProgram(objectName);
+    if (vm.CT == TamVM.CB)
+      return;
+    Translator translator = new Translator(vm);
+
+    File source = new File(new File(directory, "TAM"), className + ".java");
+    try {
+      source.getParentFile().mkdirs();
+      translator.out = new PrintWriter(new FileWriter(source));
+      translator.writeClass(className, objectName);
+      translator.out.close();
+    } catch (IOException s) {
+      System.err.println ("Error writing " + source + ": " + s);
+      return;
+    }
+
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    if (javac == null) {
+      System.err.println ("No Java compiler available; source left in " + source);
+      return;
+    }
+    int result = javac.run(null, null, null, "-nowarn", "-d", directory,
+        "-cp", System.getProperty("java.class.path"), source.getPath());
+    if (result == 0)
+      System.out.println ("Translated " + objectName + " to TAM." + className
+          + " in " + directory);
+    else
+      System.err.println ("Compilation of " + source + " failed");
+  }
+}
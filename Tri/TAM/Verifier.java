@@ -0,0 +1,345 @@
+/*
+ * @(#)Verifier.java
+ *
+ * Checks a loaded TAM program before it runs, so that TamVM can run it
+ * without checking for stack space at every push (see
+ * TamVM.interpretVerified).
+ */
+
+package TAM;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Verifies the program a TamVM has loaded. Starting from the main program
+ * and following every CALL, the verifier checks of each routine that
+ * <ul>
+ * <li>every instruction is valid and names valid registers;</li>
+ * <li>every jump and call goes to a constant address within the code, and
+ *     control does not fall off the end of it;</li>
+ * <li>the stack has the same depth whichever way control reaches an
+ *     instruction, never drops into the link data of the frame, and holds
+ *     the result of the routine at each RETURN;</li>
+ * <li>every RETURN of the routine pops and pushes the same number of
+ *     words;</li>
+ * </ul>
+ * and finds the greatest number of words its frame holds above LB, link
+ * data included (above SB for the main program). A verified program needs
+ * a check for stack space only when a routine is called.
+ *
+ * Programs that compute code addresses (CALLI, JUMPI), that use the heap
+ * (whose top moves under the frames), or that call eq, ne, puts, &lt;&lt;
+ * or &gt;&gt; with a size that is not given by the LOADL just before are not
+ * verified; they run with every check, as before.
+ */
+
+public class Verifier {
+
+  final Instruction[] program;
+
+  final int CT;
+
+  // Whether a jump or call can land on each code address.
+  final boolean[] leader;
+
+  // The words each RETURN of a routine leaves on the caller's stack less
+  // the arguments it pops, by entry address.
+  final Map<Integer, Integer> effects = new HashMap<Integer, Integer>();
+
+  // The arguments the routine at each entry address pops.
+  final Map<Integer, Integer> arguments = new HashMap<Integer, Integer>();
+
+  // The most words each verified routine's frame holds, by entry address,
+  // or 0 for an address that is not a routine entry.
+  final int[] maxStack;
+
+  // The depth of the stack before each code address in the routine being
+  // verified, or -1 if it has not been reached.
+  final int[] depth;
+
+  // Why the program is not verified, or null.
+  String error;
+
+  // words popped and pushed by each primitive routine, -1 if it depends
+  // on the size given by the preceding LOADL
+  static final int[] primitivePops = {
+    0, 0, 1, 2, 2, 1, 1, 1, 2, 2, 2, 2, 2, 2, 2, 2, 2, -1, -1, 0, 0,
+    1, 1, 0, 0, 1, 1, 1, 2, -1, -1, -1, 2, 0, 2
+  };
+  static final int[] primitivePushes = {
+    0, 0, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+    0, 0, 0, 0, 0, 0, 1, 0, 0, 1, 1, 1, 0, 1
+  };
+
+  Verifier (Instruction[] program, int CT) {
+    this.program = program;
+    this.CT = CT;
+    leader = new boolean[CT + 1];
+    maxStack = new int[CT];
+    depth = new int[CT];
+    Arrays.fill(depth, -1);
+  }
+
+  /**
+   * Verifies the program the given machine has loaded. Returns the most
+   * words the frame of each routine holds, by entry address, or null if
+   * the program is not verified, in which case vm.verifyError says why.
+   */
+  static int[] verify (TamVM vm) {
+    Verifier verifier = new Verifier(vm.instructions, vm.CT);
+    verifier.run();
+    vm.verifyError = verifier.error;
+    return (verifier.error == null) ? verifier.maxStack : null;
+  }
+
+  void fail (int addr, String reason) {
+    if (error == null)
+      error = reason + " at " + addr;
+  }
+
+  boolean inCode (int addr) {
+    return (TamVM.CB <= addr) && (addr < CT);
+  }
+
+  /**
+   * Returns where the jump or call at addr goes, or -1 if that is not a
+   * constant code address (or primitive, for a call).
+   */
+  int target (int addr) {
+    Instruction instr = program[addr];
+    if (instr.r == Machine.CBr && inCode(instr.d))
+      return instr.d;
+    if (instr.op == Machine.CALLop && instr.r == Machine.PBr
+        && instr.d > 0 && instr.d < primitivePops.length)
+      return -1 - instr.d; // see primitive
+    fail(addr, "jump to a computed or invalid address");
+    return -1;
+  }
+
+  /**
+   * Returns the size given by the LOADL k words before addr, or -1.
+   */
+  int loaded (int addr, int k) {
+    for (int i = 0; i < k; i++)
+      if (addr - i <= TamVM.CB || leader[addr - i])
+        return -1;
+    Instruction instr = program[addr - k];
+    return (instr.op == Machine.LOADLop && instr.d >= 0) ? instr.d : -1;
+  }
+
+  /**
+   * Returns the words the primitive p, called at addr, pops.
+   */
+  int primitivePops (int p, int addr) {
+    int size, size2;
+    switch (p) {
+      case Machine.newDisplacement:
+      case Machine.disposeDisplacement:
+        fail(addr, "heap allocation");
+        return 0;
+      case Machine.eqDisplacement:
+      case Machine.neDisplacement:
+        size = loaded(addr, 1);
+        return (size < 0) ? -1 : 2 * size + 1;
+      case Machine.putsDisplacement:
+        size = loaded(addr, 1);
+        return (size < 0) ? -1 : size + 1;
+      case Machine.lexicoIncDisplacement:
+      case Machine.lexicoDecDisplacement:
+        size = loaded(addr, 1);
+        size2 = loaded(addr, 2);
+        return (size < 0 || size2 < 0) ? -1 : size + size2 + 2;
+      default:
+        return primitivePops[p];
+    }
+  }
+
+  void findLeaders () {
+    for (int addr = TamVM.CB; addr < CT; addr++) {
+      Instruction instr = program[addr];
+      if ((instr.op == Machine.JUMPop || instr.op == Machine.JUMPIFop
+          || instr.op == Machine.CALLop) && instr.r == Machine.CBr && inCode(instr.d))
+        leader[instr.d] = true;
+    }
+  }
+
+  /**
+   * Finds what the RETURNs of the routine at entry pop and leave, without
+   * following its calls.
+   */
+  void findEffect (int entry) {
+    boolean[] seen = new boolean[CT];
+    ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+    pending.push(entry);
+    seen[entry] = true;
+    Integer effect = null, popped = null;
+    while (!pending.isEmpty() && error == null) {
+      int addr = pending.pop();
+      Instruction instr = program[addr];
+      if (instr.op == Machine.RETURNop) {
+        if (effect != null && (effect != instr.n - instr.d || popped != instr.d))
+          fail(addr, "RETURN inconsistent with the routine's other RETURNs");
+        effect = instr.n - instr.d;
+        popped = instr.d;
+        continue;
+      }
+      if (instr.op == Machine.HALTop)
+        continue;
+      if (instr.op == Machine.JUMPop || instr.op == Machine.JUMPIFop) {
+        int t = target(addr);
+        if (t >= 0 && !seen[t]) {
+          seen[t] = true;
+          pending.push(t);
+        }
+      }
+      if (instr.op != Machine.JUMPop && addr + 1 < CT && !seen[addr + 1]) {
+        seen[addr + 1] = true;
+        pending.push(addr + 1);
+      }
+    }
+    // a routine that never returns leaves nothing
+    effects.put(entry, effect == null ? 0 : effect);
+    arguments.put(entry, popped == null ? 0 : popped);
+  }
+
+  /**
+   * Verifies the routine at entry (CB for the main program), recording
+   * the most words its frame holds, and verifies the routines it calls.
+   */
+  void verifyRoutine (int entry, ArrayDeque<Integer> routines) {
+    boolean main = entry == TamVM.CB;
+    int base = main ? 0 : Machine.linkDataSize;
+    int most = base;
+    ArrayDeque<Integer> reached = new ArrayDeque<Integer>();
+    ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+    depth[entry] = base;
+    pending.push(entry);
+    reached.push(entry);
+
+    while (!pending.isEmpty() && error == null) {
+      int addr = pending.pop();
+      Instruction instr = program[addr];
+      int before = depth[addr], pops = 0, pushes = 0, t = -1;
+      boolean next = true;
+
+      if ((instr.op == Machine.LOADop || instr.op == Machine.LOADAop
+          || instr.op == Machine.STOREop || instr.op == Machine.CALLop)
+          && !TamVM.isRegister(instr.r))
+        fail(addr, "invalid register " + instr.r);
+      switch (instr.op) {
+        case Machine.LOADop:
+          pushes = instr.n;
+          break;
+        case Machine.LOADAop:
+        case Machine.LOADLop:
+          pushes = 1;
+          break;
+        case Machine.LOADIop:
+          pops = 1;
+          pushes = instr.n;
+          break;
+        case Machine.STOREop:
+          pops = instr.n;
+          break;
+        case Machine.STOREIop:
+          pops = instr.n + 1;
+          break;
+        case Machine.CALLop:
+          if (!TamVM.isRegister(instr.n))
+            fail(addr, "invalid static link register " + instr.n);
+          t = target(addr);
+          if (t < -1) {
+            int p = -1 - t;
+            pops = primitivePops(p, addr);
+            pushes = primitivePushes[p];
+            if (pops < 0)
+              fail(addr, "primitive with no constant size");
+            t = -1;
+          } else if (t >= 0) {
+            if (!effects.containsKey(t)) {
+              findEffect(t);
+              routines.push(t);
+            }
+            pops = arguments.get(t);
+            pushes = pops + effects.get(t);
+          }
+          break;
+        case Machine.CALLIop:
+        case Machine.JUMPIop:
+          fail(addr, "computed code address");
+          break;
+        case Machine.RETURNop:
+          if (main)
+            fail(addr, "RETURN from the main program");
+          else if (before < base + instr.n)
+            fail(addr, "RETURN with too few words on the stack");
+          next = false;
+          break;
+        case Machine.PUSHop:
+          pushes = instr.d;
+          break;
+        case Machine.POPop:
+          pops = instr.n + instr.d;
+          pushes = instr.n;
+          break;
+        case Machine.JUMPop:
+          t = target(addr);
+          next = false;
+          break;
+        case Machine.JUMPIFop:
+          pops = 1;
+          t = target(addr);
+          break;
+        case Machine.HALTop:
+          next = false;
+          break;
+        default:
+          fail(addr, "invalid instruction");
+      }
+      if ((instr.n < 0) || (instr.d < 0 && (instr.op == Machine.PUSHop || instr.op == Machine.POPop)))
+        fail(addr, "negative operand");
+      if (before - pops < base)
+        fail(addr, "stack underflow");
+      int after = before - pops + pushes;
+      most = Math.max(most, Math.max(before, after));
+
+      if (instr.op == Machine.CALLop)
+        t = -1; // control comes back to addr + 1
+      if (t >= 0)
+        merge(t, after, addr, pending, reached);
+      if (next) {
+        if (addr + 1 >= CT)
+          fail(addr, "control falls off the end of the code");
+        else
+          merge(addr + 1, after, addr, pending, reached);
+      }
+    }
+    maxStack[entry] = most;
+    for (int addr : reached)
+      depth[addr] = -1;
+  }
+
+  void merge (int addr, int d, int from, ArrayDeque<Integer> pending, ArrayDeque<Integer> reached) {
+    if (depth[addr] < 0) {
+      depth[addr] = d;
+      pending.push(addr);
+      reached.push(addr);
+    } else if (depth[addr] != d)
+      fail(from, "stack depth " + d + " differs from " + depth[addr] + " at " + addr);
+  }
+
+  void run () {
+    if (CT <= TamVM.CB) {
+      error = "no code";
+      return;
+    }
+    findLeaders();
+    ArrayDeque<Integer> routines = new ArrayDeque<Integer>();
+    verifyRoutine(TamVM.CB, routines);
+    while (!routines.isEmpty() && error == null)
+      verifyRoutine(routines.pop(), routines);
+  }
+}
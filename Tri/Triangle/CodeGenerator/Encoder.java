@@ -14,11 +14,16 @@
 
 package Triangle.CodeGenerator;
 
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Set;
 
 import javax.swing.text.TableView.TableRow;
 
@@ -50,10 +55,7 @@ public final class Encoder implements Visitor {
 			ConstActualParameter cap = ((ConstActualParameter) saps.AP);
 			if(cap.E instanceof StringExpression){
 				StringExpression se = ((StringExpression) cap.E);
-				int i = 0;
-				while(i < se.SL.spelling.length()){
-					emit(Machine.LOADLop, 1, 0, (int) se.SL.spelling.charAt(i++), ast.getPosition().start);
-				}
+				encodeWords(se.SL.spelling, ast.getPosition().start);
 				ast.I.size = se.SL.spelling.length();
 			}
 			else if (cap.E instanceof VnameExpression){
@@ -273,9 +275,7 @@ public final class Encoder implements Visitor {
 
 	public Object visitStringExpression(StringExpression ast, Object o) {
 		Integer valSize = (Integer) ast.SL.spelling.length();
-		for(int i = 0; i < valSize; i ++){
-			emit(Machine.LOADLop, 0, 0, ast.SL.spelling.charAt(i), ast.getPosition().start);
-		}
+		encodeWords(ast.SL.spelling, ast.getPosition().start);
 		return valSize;
 	}
 
@@ -384,6 +384,8 @@ public final class Encoder implements Visitor {
 	}
 
 	public Object visitFuncDeclaration(FuncDeclaration ast, Object o) {
+		if (!isReachable(ast))
+			return Integer.valueOf(0);
 		Frame frame = (Frame) o;
 		int jumpAddr = nextInstrAddr;
 		int argsSize = 0, valSize = 0;
@@ -393,7 +395,7 @@ public final class Encoder implements Visitor {
 		emit(Machine.JUMPop, 0, Machine.CBr, 0, ast.getPosition().start);
 		ast.entity = new KnownRoutine(Machine.closureSize, frame.level, nextInstrAddr);
 		if (frame.level == Machine.maxRoutineLevel)
-			reporter.reportRestriction("can't nest routines more than 7 deep");
+			reporter.reportRestriction("can't nest routines more than " + Machine.maxRoutineLevel + " deep");
 		else {
 			Frame frame1 = new Frame(frame.level + 1, 0);
 			argsSize = ((Integer) ast.FPS.visit(this, frame1)).intValue();
@@ -408,6 +410,8 @@ public final class Encoder implements Visitor {
 	}
 
 	public Object visitFuncOperDeclaration(FuncOperDeclaration ast, Object o) {
+		if (!isReachable(ast))
+			return Integer.valueOf(0);
 		Frame frame = (Frame) o;
 		String[] details = new String[3];
 		details[0] = ast.O.spelling;
@@ -417,7 +421,7 @@ public final class Encoder implements Visitor {
 		emit(Machine.JUMPop, 0, Machine.CBr, 0, ast.getPosition().start);
 		ast.entity = new KnownRoutine(Machine.closureSize, frame.level, nextInstrAddr);
 		if (frame.level == Machine.maxRoutineLevel)
-			reporter.reportRestriction("can't nest routines more than 7 deep");
+			reporter.reportRestriction("can't nest routines more than " + Machine.maxRoutineLevel + " deep");
 		else {
 			Frame frame1 = new Frame(frame.level + 1, 0);
 			argsSize = ((Integer) ast.FPS.visit(this, frame1)).intValue();
@@ -432,6 +436,8 @@ public final class Encoder implements Visitor {
 	}
 
 	public Object visitProcDeclaration(ProcDeclaration ast, Object o) {
+		if (!isReachable(ast))
+			return Integer.valueOf(0);
 		Frame frame = (Frame) o;
 		int jumpAddr = nextInstrAddr;
 		String[] details = new String[3];
@@ -469,10 +475,7 @@ public final class Encoder implements Visitor {
 	public Object visitStringDeclaration(StringDeclaration ast, Object o) {
 		Frame frame = (Frame) o;
 		int extraSize = Integer.parseInt(ast.IL.spelling);
-		for(int i = 0; i < extraSize; i++)
-		{
-			emit(Machine.LOADLop, 1, 0, 0, ast.getPosition().start);
-		}
+		encodeZeros(extraSize, ast.getPosition().start);
 		//		emit(Machine.PUSHop, 0, 0, extraSize);
 		ast.entity = new KnownAddress(Machine.addressSize, frame.level, frame.size);
 		return new Integer(extraSize);
@@ -503,9 +506,7 @@ public final class Encoder implements Visitor {
 		int extraSize;
 
 		extraSize = ((Integer) ast.T.visit(this, null)).intValue();
-		for(int i = 0; i < extraSize; i++){
-			emit(Machine.LOADLop, 1, 0, 0, ast.getPosition().start);
-		}
+		encodeZeros(extraSize, ast.getPosition().start);
 		ast.entity = new KnownAddress(Machine.addressSize, frame.level, frame.size);
 		return new Integer(extraSize);
 	}
@@ -623,6 +624,7 @@ public final class Encoder implements Visitor {
 			// static link, code address
 			emit(Machine.LOADAop, 0, displayRegister(frame.level, address.level), 0, ast.getPosition().start);
 			emit(Machine.LOADAop, 0, Machine.CBr, address.displacement, ast.getPosition().start);
+			importAt(ast.I.decl.entity);
 		} else if (ast.I.decl.entity instanceof UnknownRoutine) {
 			ObjectAddress address = ((UnknownRoutine) ast.I.decl.entity).address;
 			emit(Machine.LOADop, Machine.closureSize, displayRegister(frame.level,
@@ -670,6 +672,7 @@ public final class Encoder implements Visitor {
 			// static link, code address
 			emit(Machine.LOADAop, 0, displayRegister(frame.level, address.level), 0, ast.getPosition().start);
 			emit(Machine.LOADAop, 0, Machine.CBr, address.displacement, ast.getPosition().start);
+			importAt(ast.I.decl.entity);
 		} else if (ast.I.decl.entity instanceof UnknownRoutine) {
 			ObjectAddress address = ((UnknownRoutine) ast.I.decl.entity).address;
 			emit(Machine.LOADop, Machine.closureSize, displayRegister(frame.level,
@@ -822,6 +825,7 @@ public final class Encoder implements Visitor {
 			ObjectAddress address = ((KnownRoutine) ast.decl.entity).address;
 			emit(Machine.CALLop, displayRegister(frame.level, address.level),
 					Machine.CBr, address.displacement, ast.getPosition().start);
+			importAt(ast.decl.entity);
 		} else if (ast.decl.entity instanceof UnknownRoutine) {
 			ObjectAddress address = ((UnknownRoutine) ast.decl.entity).address;
 			emit(Machine.LOADop, Machine.closureSize, displayRegister(frame.level,
@@ -1002,17 +1006,169 @@ public final class Encoder implements Visitor {
 
 	private ErrorReporter reporter;
 
+	// The routine declarations that the program can call, or null if every
+	// routine is to be encoded.
+	private Set<Declaration> reachable;
+
+	// Whether the program is a module, as its object file says (see
+	// TAM.ObjectFileHeader.module).
+	private boolean encodingModule;
+
+	private boolean isReachable (Declaration decl) {
+		return (reachable == null) || reachable.contains(decl);
+	}
+
 	// Generates code to run a program.
 	// showingTable is true iff entity description details
 	// are to be displayed.
 	public final void encodeRun (Program theAST, boolean showingTable) {
+		encodeRun(theAST, showingTable, false);
+	}
+
+	// Generates code to run a program, or a module whose top-level
+	// routines are exported. Only the routines that the program can call
+	// are encoded (see Reachability), so they have no entries in the
+	// symbol table or pointer maps either.
+	public final void encodeRun (Program theAST, boolean showingTable, boolean module) {
+		Reachability reachability = Reachability.of(theAST, module);
+		reachable = reachability.routines;
+		encodingModule = module;
+		if (!module)
+			fillPool(reachability);
 		lineMap.ensureCapacity(1);
 		tableDetailsReqd = showingTable;
 		//startCodeGeneration();
-		theAST.visit(this, new Frame (0, 0));
+		// the globals are above the constant pool
+		theAST.visit(this, new Frame (0, pool.length()));
 		emit(Machine.HALTop, 0, 0, 0, theAST.getPosition().start);
 	}
 
+	// CONSTANT POOL
+
+	// The constant pool, loaded at SB before the program runs (see
+	// TAM.ObjectFileHeader.constantCount), a word to each char: first a
+	// block of zeros as long as the longest variable that is filled with
+	// zeros, up to the 255 words that one LOAD can fetch, then each string
+	// literal of more than one char that is not already part of the pool.
+	// A literal, or the zeros of a variable, is then pushed by one LOAD for
+	// each 255 words, rather than a LOADL for each word. A module has no
+	// data of its own, so its pool is empty, and it pushes with LOADLs.
+	private StringBuilder pool = new StringBuilder();
+	private int zeroBlock;
+
+	private void fillPool (Reachability reachability) {
+		for (VarDeclaration decl : reachability.zeroFilled) {
+			int size = (decl instanceof StringDeclaration)
+					? Integer.parseInt(((StringDeclaration) decl).IL.spelling)
+					: ((Integer) decl.T.visit(this, null)).intValue();
+			zeroBlock = Math.min(255, Math.max(zeroBlock, size));
+		}
+		if (zeroBlock < 2)
+			zeroBlock = 0;
+		for (int i = 0; i < zeroBlock; i++)
+			pool.append('\u0000');
+		// the longest first, so that a shorter one can be part of it
+		ArrayList<String> literals = new ArrayList<String>(reachability.literals);
+		Collections.sort(literals, new Comparator<String>() {
+			public int compare (String s1, String s2) {
+				return s2.length() - s1.length();
+			}
+		});
+		for (String literal : literals)
+			if ((literal.length() > 1) && (pool.indexOf(literal) < 0))
+				pool.append(literal);
+	}
+
+	// Pushes the chars of a string literal, a word to each.
+	private void encodeWords (String words, int lineNumber) {
+		int offset = (words.length() > 1) ? pool.indexOf(words) : -1;
+		if (offset < 0) {
+			for (int i = 0; i < words.length(); i++)
+				emit(Machine.LOADLop, 0, 0, words.charAt(i), lineNumber);
+		} else {
+			for (int i = 0; i < words.length(); i += 255)
+				emit(Machine.LOADop, Math.min(255, words.length() - i), Machine.SBr, offset + i, lineNumber);
+		}
+	}
+
+	// Pushes the given number of zero words.
+	private void encodeZeros (int size, int lineNumber) {
+		if ((size < 2) || (zeroBlock == 0)) {
+			for (int i = 0; i < size; i++)
+				emit(Machine.LOADLop, 1, 0, 0, lineNumber);
+		} else {
+			for (int i = 0; i < size; i += zeroBlock)
+				emit(Machine.LOADop, Math.min(zeroBlock, size - i), Machine.SBr, 0, lineNumber);
+		}
+	}
+
+	// SEPARATE COMPILATION
+
+	// The headings that a module exports, each its name, its heading as
+	// Triangle source and the entry address of a routine (0 for a type),
+	// and the imports of the object program, each the name of a routine of
+	// another module and the address of the instruction that calls it or
+	// loads its address (see TAM.ObjectFileHeader).
+	static ArrayList<String[]> exports = new ArrayList<String[]>();
+	static ArrayList<String[]> imports = new ArrayList<String[]>();
+
+	// Decides the run-time representation of a heading that an imported
+	// module exports (see Checker.importDeclaration).
+	public void importDeclaration (Declaration decl) {
+		if (decl instanceof ProcDeclaration)
+			decl.entity = new ImportedRoutine(Machine.closureSize, ((ProcDeclaration) decl).I.spelling);
+		else if (decl instanceof FuncDeclaration)
+			decl.entity = new ImportedRoutine(Machine.closureSize, ((FuncDeclaration) decl).I.spelling);
+		else
+			decl.visit(this, null);
+	}
+
+	// Records the instruction just emitted as an import, if it calls or
+	// loads the address of an imported routine.
+	private void importAt (RuntimeEntity entity) {
+		if (entity instanceof ImportedRoutine)
+			imports.add(new String[] {((ImportedRoutine) entity).name, "" + (nextInstrAddr - 1)});
+	}
+
+	// Records the exports of a module, whose program is a let command:
+	// the procedures, functions and types that it declares at the top
+	// level. A module has no global storage of its own, since the storage
+	// of a linked program is the main program's, so a top-level variable,
+	// or a constant that is not a literal, is an error.
+	public void exportDeclarations (Program theAST) {
+		if (theAST.C instanceof LetCommand)
+			exportDeclaration(((LetCommand) theAST.C).D);
+	}
+
+	private void exportDeclaration (Declaration decl) {
+		if (decl instanceof SequentialDeclaration) {
+			exportDeclaration(((SequentialDeclaration) decl).D1);
+			exportDeclaration(((SequentialDeclaration) decl).D2);
+		} else if ((decl.entity instanceof KnownAddress) || (decl.entity instanceof UnknownValue)) {
+			reporter.reportError("a module can't declare storage at its top level",
+					"", decl.getPosition());
+		} else if (decl instanceof ProcDeclaration) {
+			exportRoutine(((ProcDeclaration) decl).I.spelling, decl);
+		} else if (decl instanceof FuncDeclaration) {
+			exportRoutine(((FuncDeclaration) decl).I.spelling, decl);
+		} else if (decl instanceof TypeDeclaration) {
+			exportHeading(((TypeDeclaration) decl).I.spelling, decl, 0);
+		}
+	}
+
+	private void exportRoutine (String name, Declaration decl) {
+		exportHeading(name, decl, ((KnownRoutine) decl.entity).address.displacement);
+	}
+
+	private void exportHeading (String name, Declaration decl, int entry) {
+		String heading = Heading.of(decl);
+		if (heading == null)
+			reporter.reportError("can't export \"%\", whose heading has a string type",
+					name, decl.getPosition());
+		else
+			exports.add(new String[] {name, heading, "" + entry});
+	}
+
 	// Decides run-time representation of a standard constant.
 	private final void elaborateStdConst (Declaration constDeclaration,
 			int value) {
@@ -1084,29 +1240,37 @@ public final class Encoder implements Visitor {
 	// Saves the object program in the named file.
 
 	public void saveObjectProgram(String objectName, String fileName) {
-		FileOutputStream objectFile = null;
+		saveObjectProgram(objectName, fileName, 0);
+	}
+
+	// Saves the object program in the named file, asking for a data store of
+	// dataSize words (0 for the interpreter's default). It has no pointer
+	// maps: the Encoder does not track which frame words hold heap
+	// addresses, and a frame whose routine has no map is one the collector
+	// scans whole (see TAM.Heap.scanStack).
+
+	public void saveObjectProgram(String objectName, String fileName, int dataSize) {
 		DataOutputStream objectStream = null;
-		ObjectFileHeader header = new ObjectFileHeader(fileName, nextInstrAddr - Machine.CB, tableRecord);
+		ObjectFileHeader header = new ObjectFileHeader(fileName, nextInstrAddr - Machine.CB, tableRecord, dataSize,
+				0, exports.size(), imports.size(), pool.length());
+		header.module = encodingModule;
+		int[] constants = new int[pool.length()];
+		for (int i = 0; i < constants.length; i++)
+			constants[i] = pool.charAt(i);
 
 		int addr;
 
 		try {
-			objectFile = new FileOutputStream (objectName);
-			objectStream = new DataOutputStream (objectFile);
+			objectStream = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (objectName)));
 			header.write(objectStream);
-			addr = Machine.CB;
 			for (addr = Machine.CB; addr < nextInstrAddr; addr++)
-				Machine.code[addr].write(objectStream);
-			for(int integer : lineMap){
-				objectStream.writeInt(integer);
-			}
-			for(String[] stringArray : tableDetails){
-				for(String string : stringArray){
-					objectStream.writeInt(string.length());
-					objectStream.writeChars(string);
-				}
-			}
-			objectFile.close();
+				header.writeInstruction(objectStream, Machine.code[addr]);
+			header.writeConstants(objectStream, constants);
+			header.writeLineMap(objectStream, lineMap);
+			header.writeSymbols(objectStream, tableDetails);
+			header.writeExports(objectStream, exports);
+			header.writeImports(objectStream, imports);
+			objectStream.close();
 		} catch (FileNotFoundException s) {
 			System.err.println ("Error opening object file: " + s);
 		} catch (IOException s) {
@@ -1149,13 +1313,11 @@ public final class Encoder implements Visitor {
 		nextInstr.n = n;
 		nextInstr.r = r;
 		nextInstr.d = d;
-		if (nextInstrAddr == Machine.PB)
-			reporter.reportRestriction("too many instructions for code segment");
-		else {
-			writeTableDetails(nextInstrAddr, lineNumber);
-			Machine.code[nextInstrAddr] = nextInstr;
-			nextInstrAddr = nextInstrAddr + 1;
-		}
+		if (nextInstrAddr == Machine.code.length)
+			Machine.code = Arrays.copyOf(Machine.code, 2 * Machine.code.length);
+		writeTableDetails(nextInstrAddr, lineNumber);
+		Machine.code[nextInstrAddr] = nextInstr;
+		nextInstrAddr = nextInstrAddr + 1;
 	}
 
 	// Patches the d-field of the instruction at address addr.
@@ -1180,10 +1342,8 @@ public final class Encoder implements Visitor {
 			return Machine.SBr;
 		else if (currentLevel - objectLevel <= 6)
 			return Machine.LBr + currentLevel - objectLevel; // LBr|L1r|...|L6r
-		else {
-			reporter.reportRestriction("can't access data more than 6 levels out");
-			return Machine.L6r;  // to allow code generation to continue
-		}
+		else
+			return Machine.L7r + currentLevel - objectLevel - 7; // L7r|L8r|...
 	}
 
 	// Generates code to fetch the value of a named constant or variable
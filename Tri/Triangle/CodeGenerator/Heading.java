@@ -0,0 +1,92 @@
+/*
+ * @(#)Heading.java
+ *
+ * Writes the headings of the routines and types that a module exports as
+ * Triangle source.
+ */
+
+package Triangle.CodeGenerator;
+
+import Triangle.AbstractSyntaxTrees.*;
+
+// The heading of an exported routine or type, as Triangle source that
+// Parser.parseExport reads back in a program that imports the module: a
+// procedure or function without its body, or a type declaration. Types
+// are written out in full from the type denoters that the checker has
+// resolved, so that a heading names only the standard types; Triangle
+// types are equal when their structures are, so the importing program's
+// types match the module's.
+
+public final class Heading {
+
+  // Returns the heading of the declaration, or null if it is not one that
+  // a module can export.
+  public static String of (Declaration decl) {
+    try {
+      if (decl instanceof ProcDeclaration) {
+        ProcDeclaration proc = (ProcDeclaration) decl;
+        return "proc " + proc.I.spelling + " (" + formals(proc.FPS) + ")";
+      } else if (decl instanceof FuncDeclaration) {
+        FuncDeclaration func = (FuncDeclaration) decl;
+        return "func " + func.I.spelling + " (" + formals(func.FPS) + "): " + type(func.T);
+      } else if (decl instanceof TypeDeclaration) {
+        TypeDeclaration type = (TypeDeclaration) decl;
+        return "type " + type.I.spelling + " ~ " + type(type.T);
+      }
+    } catch (IllegalArgumentException e) {
+      // a string, or a type with no source form
+    }
+    return null;
+  }
+
+  private static String formals (FormalParameterSequence fps) {
+    if (fps instanceof SingleFormalParameterSequence)
+      return formal(((SingleFormalParameterSequence) fps).FP);
+    else if (fps instanceof MultipleFormalParameterSequence) {
+      MultipleFormalParameterSequence multiple = (MultipleFormalParameterSequence) fps;
+      return formal(multiple.FP) + ", " + formals(multiple.FPS);
+    } else
+      return "";
+  }
+
+  private static String formal (FormalParameter fp) {
+    if (fp instanceof ConstFormalParameter) {
+      ConstFormalParameter p = (ConstFormalParameter) fp;
+      return p.I.spelling + ": " + type(p.T);
+    } else if (fp instanceof VarFormalParameter) {
+      VarFormalParameter p = (VarFormalParameter) fp;
+      return "var " + p.I.spelling + ": " + type(p.T);
+    } else if (fp instanceof ProcFormalParameter) {
+      ProcFormalParameter p = (ProcFormalParameter) fp;
+      return "proc " + p.I.spelling + " (" + formals(p.FPS) + ")";
+    } else if (fp instanceof FuncFormalParameter) {
+      FuncFormalParameter p = (FuncFormalParameter) fp;
+      return "func " + p.I.spelling + " (" + formals(p.FPS) + "): " + type(p.T);
+    }
+    throw new IllegalArgumentException();
+  }
+
+  private static String type (TypeDenoter t) {
+    if (t instanceof IntTypeDenoter)
+      return "Integer";
+    else if (t instanceof BoolTypeDenoter)
+      return "Boolean";
+    else if (t instanceof CharTypeDenoter)
+      return "Char";
+    else if (t instanceof ArrayTypeDenoter) {
+      ArrayTypeDenoter array = (ArrayTypeDenoter) t;
+      return "array " + array.IL.spelling + " of " + type(array.T);
+    } else if (t instanceof RecordTypeDenoter)
+      return "record " + fields(((RecordTypeDenoter) t).FT) + " end";
+    throw new IllegalArgumentException();
+  }
+
+  private static String fields (FieldTypeDenoter ft) {
+    if (ft instanceof MultipleFieldTypeDenoter) {
+      MultipleFieldTypeDenoter multiple = (MultipleFieldTypeDenoter) ft;
+      return multiple.I.spelling + ": " + type(multiple.T) + ", " + fields(multiple.FT);
+    }
+    SingleFieldTypeDenoter single = (SingleFieldTypeDenoter) ft;
+    return single.I.spelling + ": " + type(single.T);
+  }
+}
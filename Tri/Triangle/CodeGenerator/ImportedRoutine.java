@@ -0,0 +1,23 @@
+/*
+ * @(#)ImportedRoutine.java
+ *
+ * A routine exported by a separately compiled module.
+ */
+
+package Triangle.CodeGenerator;
+
+// A routine of an imported module. Its entry address is not known until
+// the program is linked, so the code that calls it, or loads its address,
+// addresses 0 in the code segment and is recorded as an import of its name
+// (see Encoder.importAt), whose d-field TAM.Linker sets.
+
+public class ImportedRoutine extends KnownRoutine {
+
+  public ImportedRoutine (int size, String name) {
+    super(size, 0, 0);
+    this.name = name;
+  }
+
+  public String name;
+
+}
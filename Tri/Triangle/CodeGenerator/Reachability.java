@@ -0,0 +1,466 @@
+/*
+ * @(#)Reachability.java
+ *
+ * Finds the routines of a checked program that its code can call, and
+ * the constants that the code it runs needs.
+ */
+
+package Triangle.CodeGenerator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import Triangle.AbstractSyntaxTrees.*;
+
+// Whole-program reachability of routines, so that the Encoder emits code
+// only for the routines that can run. A routine is reached when a reached
+// piece of code calls it, names it as a procedure or function actual
+// parameter, or applies it as an operator; the main command is reached,
+// and so, in a module, are the routines it exports. The bodies of routine
+// declarations are walked only once the routine is reached, so that a
+// routine that only unreached routines call is not reached either.
+// Everything else that the Encoder encodes is walked as it comes, since
+// it runs whenever the code around it does. On the way, the string
+// literals and the zero-filled variables of the reached code are gathered
+// for the Encoder's constant pool.
+
+public final class Reachability implements Visitor {
+
+	// The routines reached, and those whose bodies are still to be walked.
+	public final Set<Declaration> routines =
+			Collections.newSetFromMap(new IdentityHashMap<Declaration, Boolean>());
+	private final ArrayList<Declaration> pending = new ArrayList<Declaration>();
+
+	// The string literals of the reached code, and its variable
+	// declarations, whose storage the Encoder fills with zeros.
+	public final ArrayList<String> literals = new ArrayList<String>();
+	public final ArrayList<VarDeclaration> zeroFilled = new ArrayList<VarDeclaration>();
+
+	// Walks the code that the program can run. If the program is a module,
+	// the routines that it declares at the top level of its let command,
+	// which it exports, can be called too.
+	public static Reachability of (Program theAST, boolean module) {
+		Reachability reachability = new Reachability();
+		if (module && (theAST.C instanceof LetCommand))
+			reachability.reachTopLevel(((LetCommand) theAST.C).D);
+		theAST.visit(reachability, null);
+		while (!reachability.pending.isEmpty()) {
+			Declaration decl = reachability.pending.remove(reachability.pending.size() - 1);
+			if (decl instanceof ProcDeclaration)
+				reachability.walk(((ProcDeclaration) decl).C);
+			else if (decl instanceof FuncDeclaration)
+				reachability.walk(((FuncDeclaration) decl).E);
+			else if (decl instanceof FuncOperDeclaration)
+				reachability.walk(((FuncOperDeclaration) decl).E);
+		}
+		return reachability;
+	}
+
+	private void reachTopLevel (Declaration decl) {
+		if (decl instanceof SequentialDeclaration) {
+			reachTopLevel(((SequentialDeclaration) decl).D1);
+			reachTopLevel(((SequentialDeclaration) decl).D2);
+		} else
+			reach(decl);
+	}
+
+	private void reach (AST decl) {
+		if (((decl instanceof ProcDeclaration) || (decl instanceof FuncDeclaration)
+				|| (decl instanceof FuncOperDeclaration)) && routines.add((Declaration) decl))
+			pending.add((Declaration) decl);
+	}
+
+	private void walk (AST ast) {
+		if (ast != null)
+			ast.visit(this, null);
+	}
+
+	// Commands
+	public Object visitAssignCommand(AssignCommand ast, Object o) {
+		walk(ast.V);
+		walk(ast.E);
+		return null;
+	}
+
+	public Object visitCallCommand(CallCommand ast, Object o) {
+		walk(ast.APS);
+		walk(ast.I);
+		return null;
+	}
+
+	public Object visitCaseCommand(CaseCommand ast, Object o) {
+		walk(ast.V);
+		for (Command command : ast.MAP.values())
+			walk(command);
+		return null;
+	}
+
+	public Object visitEmptyCommand(EmptyCommand ast, Object o) {
+		return null;
+	}
+
+	public Object visitIfCommand(IfCommand ast, Object o) {
+		walk(ast.E);
+		walk(ast.C1);
+		walk(ast.C2);
+		return null;
+	}
+
+	public Object visitForCommand(ForCommand ast, Object o) {
+		walk(ast.E1);
+		walk(ast.E2);
+		walk(ast.C);
+		return null;
+	}
+
+	public Object visitLetCommand(LetCommand ast, Object o) {
+		walk(ast.D);
+		walk(ast.C);
+		return null;
+	}
+
+	public Object visitRepeatCommand(RepeatCommand ast, Object o) {
+		walk(ast.C);
+		walk(ast.E);
+		return null;
+	}
+
+	public Object visitSequentialCommand(SequentialCommand ast, Object o) {
+		walk(ast.C1);
+		walk(ast.C2);
+		return null;
+	}
+
+	public Object visitWhileCommand(WhileCommand ast, Object o) {
+		walk(ast.E);
+		walk(ast.C);
+		return null;
+	}
+
+	// Expressions
+	public Object visitArrayExpression(ArrayExpression ast, Object o) {
+		walk(ast.AA);
+		return null;
+	}
+
+	public Object visitBinaryExpression(BinaryExpression ast, Object o) {
+		walk(ast.E1);
+		walk(ast.E2);
+		walk(ast.O);
+		return null;
+	}
+
+	public Object visitMultExpression(MultExpression ast, Object o) {
+		walk(ast.E1);
+		walk(ast.E2);
+		walk(ast.MOP);
+		return null;
+	}
+
+	public Object visitCallExpression(CallExpression ast, Object o) {
+		walk(ast.APS);
+		walk(ast.I);
+		return null;
+	}
+
+	public Object visitCharacterExpression(CharacterExpression ast, Object o) {
+		return null;
+	}
+
+	public Object visitStringExpression(StringExpression ast, Object o) {
+		literals.add(ast.SL.spelling);
+		return null;
+	}
+
+	public Object visitEmptyExpression(EmptyExpression ast, Object o) {
+		return null;
+	}
+
+	public Object visitIfExpression(IfExpression ast, Object o) {
+		walk(ast.E1);
+		walk(ast.E2);
+		walk(ast.E3);
+		return null;
+	}
+
+	public Object visitIntegerExpression(IntegerExpression ast, Object o) {
+		return null;
+	}
+
+	public Object visitLetExpression(LetExpression ast, Object o) {
+		walk(ast.D);
+		walk(ast.E);
+		return null;
+	}
+
+	public Object visitRecordExpression(RecordExpression ast, Object o) {
+		walk(ast.RA);
+		return null;
+	}
+
+	public Object visitUnaryExpression(UnaryExpression ast, Object o) {
+		walk(ast.E);
+		walk(ast.O);
+		return null;
+	}
+
+	public Object visitVnameExpression(VnameExpression ast, Object o) {
+		walk(ast.V);
+		return null;
+	}
+
+	// Declarations: the body of a routine is walked when it is reached
+	public Object visitAssignDeclaration(AssignDeclaration ast, Object o) {
+		walk(ast.E);
+		return null;
+	}
+
+	public Object visitBinaryOperatorDeclaration(BinaryOperatorDeclaration ast, Object o) {
+		return null;
+	}
+
+	public Object visitConstDeclaration(ConstDeclaration ast, Object o) {
+		walk(ast.E);
+		return null;
+	}
+
+	public Object visitFuncDeclaration(FuncDeclaration ast, Object o) {
+		return null;
+	}
+
+	public Object visitFuncOperDeclaration(FuncOperDeclaration ast, Object o) {
+		return null;
+	}
+
+	public Object visitProcDeclaration(ProcDeclaration ast, Object o) {
+		return null;
+	}
+
+	public Object visitSequentialDeclaration(SequentialDeclaration ast, Object o) {
+		walk(ast.D1);
+		walk(ast.D2);
+		return null;
+	}
+
+	public Object visitTypeDeclaration(TypeDeclaration ast, Object o) {
+		return null;
+	}
+
+	public Object visitUnaryOperatorDeclaration(UnaryOperatorDeclaration ast, Object o) {
+		return null;
+	}
+
+	public Object visitVarDeclaration(VarDeclaration ast, Object o) {
+		zeroFilled.add(ast);
+		return null;
+	}
+
+	public Object visitStringDeclaration(StringDeclaration ast, Object o) {
+		zeroFilled.add(ast);
+		return null;
+	}
+
+	public Object visitConstStringDeclaration(ConstStringDeclaration ast, Object o) {
+		walk(ast.E);
+		return null;
+	}
+
+	// Array Aggregates
+	public Object visitMultipleArrayAggregate(MultipleArrayAggregate ast, Object o) {
+		walk(ast.E);
+		walk(ast.AA);
+		return null;
+	}
+
+	public Object visitSingleArrayAggregate(SingleArrayAggregate ast, Object o) {
+		walk(ast.E);
+		return null;
+	}
+
+	// Record Aggregates
+	public Object visitMultipleRecordAggregate(MultipleRecordAggregate ast, Object o) {
+		walk(ast.E);
+		walk(ast.RA);
+		return null;
+	}
+
+	public Object visitSingleRecordAggregate(SingleRecordAggregate ast, Object o) {
+		walk(ast.E);
+		return null;
+	}
+
+	// Formal Parameters
+	public Object visitConstFormalParameter(ConstFormalParameter ast, Object o) {
+		return null;
+	}
+
+	public Object visitConstStringFormalParameter(ConstStringFormalParameter ast, Object o) {
+		return null;
+	}
+
+	public Object visitFuncFormalParameter(FuncFormalParameter ast, Object o) {
+		return null;
+	}
+
+	public Object visitFuncOperFormalParameter(FuncOperFormalParameter ast, Object o) {
+		return null;
+	}
+
+	public Object visitProcFormalParameter(ProcFormalParameter ast, Object o) {
+		return null;
+	}
+
+	public Object visitVarFormalParameter(VarFormalParameter ast, Object o) {
+		return null;
+	}
+
+	public Object visitEmptyFormalParameterSequence(EmptyFormalParameterSequence ast, Object o) {
+		return null;
+	}
+
+	public Object visitMultipleFormalParameterSequence(MultipleFormalParameterSequence ast, Object o) {
+		return null;
+	}
+
+	public Object visitSingleFormalParameterSequence(SingleFormalParameterSequence ast, Object o) {
+		return null;
+	}
+
+	// Actual Parameters: a routine passed as a parameter may be called
+	public Object visitConstActualParameter(ConstActualParameter ast, Object o) {
+		walk(ast.E);
+		return null;
+	}
+
+	public Object visitFuncActualParameter(FuncActualParameter ast, Object o) {
+		walk(ast.I);
+		return null;
+	}
+
+	public Object visitFuncOperActualParameter(FuncOperActualParameter ast, Object o) {
+		walk(ast.O);
+		return null;
+	}
+
+	public Object visitProcActualParameter(ProcActualParameter ast, Object o) {
+		walk(ast.I);
+		return null;
+	}
+
+	public Object visitVarActualParameter(VarActualParameter ast, Object o) {
+		walk(ast.V);
+		return null;
+	}
+
+	public Object visitEmptyActualParameterSequence(EmptyActualParameterSequence ast, Object o) {
+		return null;
+	}
+
+	public Object visitMultipleActualParameterSequence(MultipleActualParameterSequence ast, Object o) {
+		walk(ast.AP);
+		walk(ast.APS);
+		return null;
+	}
+
+	public Object visitSingleActualParameterSequence(SingleActualParameterSequence ast, Object o) {
+		walk(ast.AP);
+		return null;
+	}
+
+	// Type Denoters
+	public Object visitAnyTypeDenoter(AnyTypeDenoter ast, Object o) {
+		return null;
+	}
+
+	public Object visitArrayTypeDenoter(ArrayTypeDenoter ast, Object o) {
+		return null;
+	}
+
+	public Object visitBoolTypeDenoter(BoolTypeDenoter ast, Object o) {
+		return null;
+	}
+
+	public Object visitCharTypeDenoter(CharTypeDenoter ast, Object o) {
+		return null;
+	}
+
+	public Object visitErrorTypeDenoter(ErrorTypeDenoter ast, Object o) {
+		return null;
+	}
+
+	public Object visitSimpleTypeDenoter(SimpleTypeDenoter ast, Object o) {
+		return null;
+	}
+
+	public Object visitIntTypeDenoter(IntTypeDenoter ast, Object o) {
+		return null;
+	}
+
+	public Object visitRecordTypeDenoter(RecordTypeDenoter ast, Object o) {
+		return null;
+	}
+
+	public Object visitMultipleFieldTypeDenoter(MultipleFieldTypeDenoter ast, Object o) {
+		return null;
+	}
+
+	public Object visitSingleFieldTypeDenoter(SingleFieldTypeDenoter ast, Object o) {
+		return null;
+	}
+
+	public Object visitStringTypeDenoter(StringTypeDenoter ast, Object o) {
+		return null;
+	}
+
+	// Literals, Identifiers and Operators
+	public Object visitCharacterLiteral(CharacterLiteral ast, Object o) {
+		return null;
+	}
+
+	public Object visitStringLiteral(StringLiteral ast, Object o) {
+		return null;
+	}
+
+	public Object visitIdentifier(Identifier ast, Object o) {
+		reach(ast.decl);
+		return null;
+	}
+
+	public Object visitIntegerLiteral(IntegerLiteral ast, Object o) {
+		return null;
+	}
+
+	public Object visitOperator(Operator ast, Object o) {
+		reach(ast.decl);
+		return null;
+	}
+
+	public Object visitMultOperator(MultOperator ast, Object o) {
+		reach(ast.decl);
+		return null;
+	}
+
+	// Value-or-variable names
+	public Object visitDotVname(DotVname ast, Object o) {
+		walk(ast.V);
+		return null;
+	}
+
+	public Object visitSimpleVname(SimpleVname ast, Object o) {
+		return null;
+	}
+
+	public Object visitSubscriptVname(SubscriptVname ast, Object o) {
+		walk(ast.V);
+		walk(ast.E);
+		return null;
+	}
+
+	// Programs
+	public Object visitProgram(Program ast, Object o) {
+		walk(ast.C);
+		return null;
+	}
+}
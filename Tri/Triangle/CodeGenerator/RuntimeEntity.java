@@ -14,11 +14,13 @@
 
 package Triangle.CodeGenerator;
 
+import TAM.Machine;
+
 // Run-time object
 
 public abstract class RuntimeEntity {
 
-  public final static int maxRoutineLevel = 7;
+  public final static int maxRoutineLevel = Machine.maxRoutineLevel;
 
   public RuntimeEntity () {
     size = 0;
@@ -14,9 +14,15 @@
 
 package Triangle;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
+import TAM.Linker;
 import TAM.ObjectFileHeader;
+import Triangle.AbstractSyntaxTrees.Declaration;
 import Triangle.AbstractSyntaxTrees.Program;
 import Triangle.CodeGenerator.Encoder;
 import Triangle.ContextualAnalyzer.Checker;
@@ -39,6 +45,18 @@ public class Compiler {
 	/** The filename for the object program, normally obj.tam. */
 	static String objectName = "obj.tam";
 
+	/** The data store size, in words, recorded for the object program;
+	 *  0 for the interpreter's default. */
+	static int dataSize = 0;
+
+	/** Whether the source program is a module, whose top-level routines
+	 *  and types are exported for other programs to import. */
+	static boolean compilingModule = false;
+
+	/** The object files of the modules whose exports the source program
+	 *  imports. */
+	static List<String> importNames = new ArrayList<String>();
+
 	private static Scanner scanner;
 	private static Parser parser;
 	private static Checker checker;
@@ -93,6 +111,8 @@ public class Compiler {
 
 		// scanner.enableDebugging();
 		theAST = parser.parseProgram();				// 1st pass
+		if (reporter.numErrors == 0)
+			importModules();
 		if (reporter.numErrors == 0) {
 			if(showingAST){
 				theAST.display();        	
@@ -107,13 +127,15 @@ public class Compiler {
     			}
     			checker.check(theAST);				// 2nd pass
             	System.out.println("Code Generation ...");
-                encoder.encodeRun(theAST, showingTable);	// 3rd pass
+                encoder.encodeRun(theAST, showingTable, compilingModule);	// 3rd pass
+                if (compilingModule)
+                	encoder.exportDeclarations(theAST);
             }
 		}
 
 		boolean successful = (reporter.numErrors == 0);
 		if (successful) {
-			encoder.saveObjectProgram(objectName, sourceName);
+			encoder.saveObjectProgram(objectName, sourceName, dataSize);
 			System.out.println("Compilation was successful.");
 		} else {
 			System.out.println("Compilation was unsuccessful.");
@@ -121,18 +143,60 @@ public class Compiler {
 		return successful;
 	}
 
+	/**
+	 * Enters the headings that the imported modules export in the standard
+	 * environment, so that the source program can use them; TAM.Linker
+	 * later resolves the calls to their routines.
+	 */
+	static void importModules () {
+		for (String importName : importNames) {
+			List<String[]> exports;
+			try {
+				exports = Linker.readExports(importName);
+			} catch (IOException s) {
+				System.out.println("Can't read module " + importName + ": " + s);
+				reporter.numErrors++;
+				continue;
+			}
+			for (String[] export : exports) {
+				SourceFile heading = new SourceFile(new ByteArrayInputStream(export[1].getBytes()));
+				Declaration decl = new Parser(new Scanner(heading), reporter).parseExport();
+				if (decl != null) {
+					checker.importDeclaration(decl);
+					encoder.importDeclaration(decl);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Triangle compiler main program.
 	 *
-	 * @param	args	the only command-line argument to the program specifies
-	 *                  the source filename.
+	 * @param	args	the source filename, optionally preceded by -data and
+	 *                  the data store size the program needs, -module if
+	 *                  the program is a module, and -import and the object
+	 *                  file of each module it imports.
 	 * @throws Exception 
 	 */
 	public static void main(String[] args) throws Exception {
 		boolean compiledOK;
 
-		if (args.length == 1) {
-			String sourceName = args[0];
+		int arg = 0;
+		while (arg < args.length - 1) {
+			if (args[arg].equals("-data") && arg + 2 < args.length) {
+				dataSize = Integer.parseInt(args[arg + 1]);
+				arg += 2;
+			} else if (args[arg].equals("-import") && arg + 2 < args.length) {
+				importNames.add(args[arg + 1]);
+				arg += 2;
+			} else if (args[arg].equals("-module")) {
+				compilingModule = true;
+				arg += 1;
+			} else
+				break;
+		}
+		if (arg == args.length - 1) {
+			String sourceName = args[arg];
 			compiledOK = compileProgram(sourceName, objectName, true, false);
 		}
 		/*		File dir = new File("HW3/Pass/");
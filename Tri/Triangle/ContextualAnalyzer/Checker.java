@@ -1140,6 +1140,32 @@ public final class Checker implements Visitor {
 		ast.visit(this, null);
 	}
 
+	// Enters a heading that an imported module exports (see
+	// Parser.parseExport) in the standard environment, so that the program
+	// may use it as if it were standard. The body of an imported routine is
+	// compiled in its own module, and is not checked here.
+	public void importDeclaration(Declaration ast) {
+		if (ast instanceof FuncDeclaration) {
+			FuncDeclaration decl = (FuncDeclaration) ast;
+			decl.T = (TypeDenoter) decl.T.visit(this, null);
+			importRoutine(decl.I, decl.FPS, decl);
+		} else if (ast instanceof ProcDeclaration) {
+			ProcDeclaration decl = (ProcDeclaration) ast;
+			importRoutine(decl.I, decl.FPS, decl);
+		} else
+			ast.visit(this, null);
+	}
+
+	private void importRoutine(Identifier I, FormalParameterSequence FPS, Declaration decl) {
+		idTable.enter (I.spelling, decl);
+		if (decl.duplicated)
+			reporter.reportError ("imported identifier \"%\" already declared",
+					I.spelling, decl.position);
+		idTable.openScope();
+		FPS.visit(this, null);
+		idTable.closeScope();
+	}
+
 	/////////////////////////////////////////////////////////////////////////////
 
 	public Checker (ErrorReporter reporter) {
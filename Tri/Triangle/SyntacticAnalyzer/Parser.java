@@ -98,6 +98,57 @@ public class Parser {
 		return programAST;
 	}
 
+	// Parses the heading of a routine or type that an imported module
+	// exports (see Triangle.CodeGenerator.Heading): a procedure or function
+	// without its body, or a type declaration. The routine is given an
+	// empty body, which is never checked or encoded.
+
+	public Declaration parseExport() {
+
+		Declaration declarationAST = null;
+
+		previousTokenPosition.start = 0;
+		previousTokenPosition.finish = 0;
+		currentToken = lexicalAnalyser.scan();
+
+		try {
+			SourcePosition declarationPos = new SourcePosition();
+			start(declarationPos);
+			if (currentToken.kind == Token.PROC) {
+				acceptIt();
+				Identifier iAST = parseIdentifier();
+				accept(Token.LPAREN);
+				FormalParameterSequence fpsAST = parseFormalParameterSequence();
+				accept(Token.RPAREN);
+				finish(declarationPos);
+				declarationAST = new ProcDeclaration(iAST, fpsAST,
+						new EmptyCommand(declarationPos), declarationPos);
+			} else if (currentToken.kind == Token.FUNC) {
+				acceptIt();
+				Identifier iAST = parseIdentifier();
+				accept(Token.LPAREN);
+				FormalParameterSequence fpsAST = parseFormalParameterSequence();
+				accept(Token.RPAREN);
+				accept(Token.COLON);
+				TypeDenoter tAST = parseTypeDenoter();
+				finish(declarationPos);
+				declarationAST = new FuncDeclaration(iAST, fpsAST, tAST,
+						new EmptyExpression(declarationPos), declarationPos);
+			} else if (currentToken.kind == Token.TYPE) {
+				declarationAST = parseSingleDeclaration();
+			} else {
+				syntacticError("\"%\" cannot start an exported heading",
+						currentToken.spelling);
+			}
+			if (currentToken.kind != Token.EOT) {
+				syntacticError("\"%\" not expected after an exported heading",
+						currentToken.spelling);
+			}
+		}
+		catch (SyntaxError s) { return null; }
+		return declarationAST;
+	}
+
 	///////////////////////////////////////////////////////////////////////////////
 	//
 	// LITERALS
@@ -20,7 +20,7 @@ public class SourceFile {
   public static final char EOT = '\u0000';
 
   java.io.File sourceFile;
-  java.io.FileInputStream source;
+  java.io.InputStream source;
   int currentLine;
 
   public SourceFile(String filename) {
@@ -36,6 +36,14 @@ public class SourceFile {
     }
   }
 
+  // Reads the source from a stream, such as the export headings of an
+  // imported module.
+  public SourceFile(java.io.InputStream stream) {
+    sourceFile = null;
+    source = stream;
+    currentLine = 1;
+  }
+
   char getSource() {
     try {
       int c = source.read();
@@ -0,0 +1,275 @@
+/*
+ * @(#)RunTests.java
+ *
+ * Runs the code generation and interpretation test cases.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs each test case under the TestCases directories beside this file
+ * and compares what the interpreter writes with what the case expects.
+ * From the root of the project, with the compiler built into out:
+ * <pre>
+ *   java -cp out "Triangle_Tests/Code Generation &amp; Interpretation/RunTests.java"
+ * </pre>
+ * A case is a Triangle program Name.tri, or a hand-assembled object
+ * program Name.tam, with the output Name.out that running it must give;
+ * a program without a .out file is not a case, but may be part of one.
+ * Lines of the program (of the listing Name.txt, for a Name.tam) that
+ * start with one of these comments say how the case is run:
+ * <pre>
+ *   ! compile: -data 4096        options for the compiler
+ *   ! run: -fuel 500             options for the interpreter
+ *   ! also: -tier                also run the program with these options
+ *                                added to those of run
+ *   ! input: some text           a line of the program's input
+ *   ! module: Lib.tri            compile Lib.tri with -module, compile the
+ *                                case with -import Lib.tam and run the two
+ *                                linked together
+ *   ! record: Other.tri          compile Other.tri, run it with -record,
+ *                                and run the case with -replay of its trace
+ *   ! translate:                 also translate the program ahead of time
+ *                                with TAM.Translator, and run that
+ * </pre>
+ * A program run another way must give the same output as the case; the
+ * translated program takes no options.
+ * Each case is compiled and run in a directory of its own, which is
+ * deleted afterwards, so the output names only the files of the case.
+ */
+
+public class RunTests {
+
+  static String java, classPath;
+
+  public static void main (String[] args) throws IOException, InterruptedException {
+    File root = new File(args.length > 0 ? args[0]
+        : "Triangle_Tests" + File.separator + "Code Generation & Interpretation");
+    java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    classPath = System.getProperty("java.class.path");
+
+    int passed = 0, failed = 0;
+    File[] dirs = root.listFiles();
+    if (dirs == null) {
+      System.err.println("No test cases in " + root);
+      System.exit(2);
+    }
+    Arrays.sort(dirs);
+    for (File dir : dirs) {
+      if (!dir.isDirectory() || !dir.getName().startsWith("TestCases"))
+        continue;
+      File[] files = dir.listFiles();
+      Arrays.sort(files);
+      for (File expected : files) {
+        String name = expected.getName();
+        if (!name.endsWith(".out"))
+          continue;
+        name = name.substring(0, name.length() - 4);
+        String failure = runCase(dir, name, expected);
+        if (failure == null) {
+          passed++;
+          System.out.println("PASS " + dir.getName() + "/" + name);
+        } else {
+          failed++;
+          System.out.println("FAIL " + dir.getName() + "/" + name + ": " + failure);
+        }
+      }
+    }
+    System.out.println(passed + " passed, " + failed + " failed");
+    System.exit(failed == 0 ? 0 : 1);
+  }
+
+  /**
+   * Runs the named case of the directory. Returns null if it gave the
+   * expected output, or why not.
+   */
+  static String runCase (File dir, String name, File expected)
+      throws IOException, InterruptedException {
+    File source = new File(dir, name + ".tri");
+    boolean assembled = !source.exists();
+    if (assembled)
+      source = new File(dir, name + ".txt");
+    if (!source.exists())
+      return "no " + name + ".tri or " + name + ".txt";
+
+    List<String> compileOptions = new ArrayList<String>();
+    List<String> runOptions = new ArrayList<String>();
+    List<List<String>> also = new ArrayList<List<String>>();
+    StringBuilder input = new StringBuilder();
+    String module = null, record = null;
+    boolean translating = false;
+    for (String line : Files.readAllLines(source.toPath(), StandardCharsets.UTF_8)) {
+      line = line.trim();
+      if (line.startsWith("! compile:"))
+        compileOptions.addAll(words(line.substring(10)));
+      else if (line.startsWith("! run:"))
+        runOptions.addAll(words(line.substring(6)));
+      else if (line.startsWith("! also:"))
+        also.add(words(line.substring(7)));
+      else if (line.startsWith("! input:"))
+        input.append(line.substring(8).trim()).append('\n');
+      else if (line.startsWith("! module:"))
+        module = line.substring(9).trim();
+      else if (line.startsWith("! record:"))
+        record = line.substring(9).trim();
+      else if (line.startsWith("! translate:"))
+        translating = true;
+    }
+
+    File work = Files.createTempDirectory("triangle").toFile();
+    try {
+      String program;
+      if (assembled) {
+        copy(dir, name + ".tam", work);
+        program = name + ".tam";
+      } else {
+        if (module != null) {
+          String moduleName = module.substring(0, module.length() - 4);
+          if (!compile(dir, module, work, moduleName + ".tam", "-module"))
+            return module + " did not compile";
+          compileOptions.add("-import");
+          compileOptions.add(moduleName + ".tam");
+        }
+        if (!compile(dir, name + ".tri", work, name + ".tam",
+            compileOptions.toArray(new String[0])))
+          return name + ".tri did not compile";
+        program = name + ".tam";
+        if (module != null) {
+          String moduleName = module.substring(0, module.length() - 4);
+          run(work, "", "TAM.Linker", "-o", "linked.tam", program, moduleName + ".tam");
+          if (!new File(work, "linked.tam").exists())
+            return name + ".tam did not link";
+          program = "linked.tam";
+        }
+      }
+
+      if (record != null) {
+        String recordName = record.substring(0, record.length() - 4);
+        if (!compile(dir, record, work, recordName + ".tam"))
+          return record + " did not compile";
+        List<String> options = new ArrayList<String>(runOptions);
+        options.addAll(Arrays.asList("-record", name + ".trace", recordName + ".tam"));
+        run(work, input.toString(), "TAM.Interpreter", options.toArray(new String[0]));
+        runOptions.addAll(Arrays.asList("-replay", name + ".trace"));
+        input.setLength(0);
+      }
+
+      runOptions.add(program);
+      String actual = run(work, input.toString(), "TAM.Interpreter",
+          runOptions.toArray(new String[0]));
+      String wanted = new String(Files.readAllBytes(expected.toPath()), StandardCharsets.UTF_8);
+      String failure = difference(wanted, actual);
+      for (int i = 0; (failure == null) && (i < also.size()); i++) {
+        List<String> options = new ArrayList<String>(also.get(i));
+        options.addAll(runOptions);
+        actual = run(work, input.toString(), "TAM.Interpreter", options.toArray(new String[0]));
+        failure = difference(wanted, actual);
+        if (failure != null)
+          failure = "with " + String.join(" ", also.get(i)) + ", " + failure;
+      }
+      if ((failure == null) && translating) {
+        run(work, "", "TAM.Translator", "-d", "classes", "-o", "Translated", program);
+        File translated = new File(work, "classes" + File.separator + "TAM");
+        if (!new File(translated, "Translated.class").exists())
+          return program + " did not translate";
+        actual = runWith(work, "classes" + File.pathSeparator + classPath, input.toString(),
+            "TAM.Translated", program);
+        failure = difference(wanted, actual);
+        if (failure != null)
+          failure = "translated, " + failure;
+      }
+      return failure;
+    } finally {
+      delete(work);
+    }
+  }
+
+  /**
+   * Compiles the named source of the directory in the work directory,
+   * as objectName there. Tests whether it succeeded.
+   */
+  static boolean compile (File dir, String sourceName, File work, String objectName,
+      String... options) throws IOException, InterruptedException {
+    copy(dir, sourceName, work);
+    String[] args = Arrays.copyOf(options, options.length + 1);
+    args[options.length] = sourceName;
+    String output = run(work, "", "Triangle.Compiler", args);
+    File object = new File(work, "obj.tam");
+    if (!output.contains("Compilation was successful.") || !object.exists())
+      return false;
+    Files.move(object.toPath(), new File(work, objectName).toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    return true;
+  }
+
+  /**
+   * Runs the main class with the given arguments in the work directory,
+   * giving it input. Returns what it writes to either stream.
+   */
+  static String run (File work, String input, String mainClass, String... args)
+      throws IOException, InterruptedException {
+    return runWith(work, classPath, input, mainClass, args);
+  }
+
+  static String runWith (File work, String classPath, String input, String mainClass,
+      String... args) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<String>();
+    command.addAll(Arrays.asList(java, "-cp", classPath, mainClass));
+    command.addAll(Arrays.asList(args));
+    ProcessBuilder builder = new ProcessBuilder(command);
+    builder.directory(work);
+    builder.redirectErrorStream(true);
+    File stdin = new File(work, "stdin.txt");
+    Files.write(stdin.toPath(), input.getBytes(StandardCharsets.UTF_8));
+    builder.redirectInput(stdin);
+    Process process = builder.start();
+    byte[] output = process.getInputStream().readAllBytes();
+    process.waitFor();
+    return new String(output, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns null if the outputs are the same, or the first line at which
+   * they differ.
+   */
+  static String difference (String wanted, String actual) {
+    wanted = wanted.replace("\r\n", "\n");
+    actual = actual.replace("\r\n", "\n");
+    if (wanted.equals(actual))
+      return null;
+    String[] w = wanted.split("\n", -1), a = actual.split("\n", -1);
+    int line = 0;
+    while ((line < w.length) && (line < a.length) && w[line].equals(a[line]))
+      line++;
+    return "line " + (line + 1) + " is \"" + (line < a.length ? a[line] : "")
+        + "\", expected \"" + (line < w.length ? w[line] : "") + "\"";
+  }
+
+  static List<String> words (String options) {
+    List<String> words = new ArrayList<String>();
+    for (String word : options.trim().split("\\s+"))
+      if (!word.isEmpty())
+        words.add(word);
+    return words;
+  }
+
+  static void copy (File dir, String fileName, File work) throws IOException {
+    Files.copy(new File(dir, fileName).toPath(), new File(work, fileName).toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  static void delete (File file) {
+    File[] files = file.listFiles();
+    if (files != null)
+      for (File f : files)
+        delete(f);
+    file.delete();
+  }
+}